@@ -0,0 +1,103 @@
+import java.util.ArrayList;
+
+/**
+ * Benchmark is a small stand-in for a JMH harness that needs nothing but the
+ * JDK. Each benchmark is a subclass that prepares its state in setup() and
+ * does one unit of work in op(). run() calls op() repeatedly for a number of
+ * warm-up iterations, which are thrown away, then for a number of measured
+ * iterations, and reports the average time per operation.
+ * <p>
+ * op() returns a value that is folded into a sink so that the JIT cannot
+ * throw the work away, in the same way as a JMH Blackhole.
+ */
+public abstract class Benchmark
+{
+    static int warmupIterations = 5;
+    static int measureIterations = 5;
+    static long iterationTime = 500;    // Milliseconds per iteration
+
+    static long sink;                   // Results of op(), never read
+
+    String name;
+    String params;
+
+    /**
+     * @param name The name of the code being measured, e.g. "TileMap.draw"
+     * @param params A description of the parameters, e.g. "map=32x18"
+     */
+    public Benchmark(String name, String params)
+    {
+        this.name = name;
+        this.params = params;
+    }
+
+    /**
+     * Prepare any state op() needs. Called once before warm-up.
+     */
+    public void setup() throws Exception { }
+
+    /**
+     * Do one unit of the work being measured.
+     *
+     * @return Any value derived from the work
+     */
+    public abstract long op() throws Exception;
+
+    /**
+     * Run one iteration of op() for about 'millis' milliseconds.
+     *
+     * @return The average time per op in nanoseconds
+     */
+    private double iteration(long millis) throws Exception
+    {
+        long end = System.nanoTime() + millis * 1000000L;
+        long ops = 0;
+        long start = System.nanoTime();
+        long now;
+        do {
+            // Call op() in small batches so reading the clock stays cheap
+            for (int i=0; i<16; i++) sink += op();
+            ops += 16;
+            now = System.nanoTime();
+        } while (now < end);
+        return (double)(now - start) / ops;
+    }
+
+    /**
+     * Set up and run this benchmark, printing one line of results.
+     */
+    public void run() throws Exception
+    {
+        setup();
+        for (int i=0; i<warmupIterations; i++)
+            iteration(iterationTime);
+
+        double[] results = new double[measureIterations];
+        double total = 0;
+        for (int i=0; i<measureIterations; i++) {
+            results[i] = iteration(iterationTime);
+            total += results[i];
+        }
+        double mean = total / measureIterations;
+        double var = 0;
+        for (double r : results) var += (r - mean) * (r - mean);
+        double error = Math.sqrt(var / Math.max(1, measureIterations - 1));
+
+        System.out.printf("%-32s %-18s %14.1f +- %10.1f ns/op%n", name, params, mean, error);
+    }
+
+    /**
+     * Run every benchmark in 'list' whose name contains 'filter'.
+     *
+     * @param list The benchmarks to choose from
+     * @param filter Part of a name to match, or null to run them all
+     */
+    public static void runAll(ArrayList<Benchmark> list, String filter) throws Exception
+    {
+        System.out.printf("%-32s %-18s %14s   %10s%n", "Benchmark", "Params", "Score", "Error");
+        for (Benchmark b : list) {
+            if (filter != null && !(b.name + " " + b.params).contains(filter)) continue;
+            b.run();
+        }
+    }
+}
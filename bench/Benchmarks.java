@@ -0,0 +1,588 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+
+import game2D.*;
+
+/**
+ * Benchmarks for the hot paths of game2D and the game itself. Map sizes and
+ * entity counts are parameterised so that changes in how costs scale show up
+ * as well as changes in raw speed.
+ *
+ * Build and run from the project directory (so maps/ and images/ are found):
+ *
+ *   javac -d out src/*.java src/game2D/*.java bench/*.java
+ *   java -cp out Benchmarks [-f filter] [-wi n] [-i n] [-t millis]
+ */
+public class Benchmarks
+{
+    static final int SCREEN_WIDTH = 1056;
+    static final int SCREEN_HEIGHT = 608;
+
+    static final int[][] MAP_SIZES = { {32, 18}, {256, 64}, {1024, 256} };
+    static final int[] ENTITY_COUNTS = { 10, 100, 1000 };
+
+    // Map sizes for checking that drawing cost stays flat as maps grow
+    static final int[][] SCALING_SIZES = { {32, 18}, {1000, 100}, {10000, 1000} };
+
+    // Generated maps, kept so each size is only generated once
+    static HashMap<String,TileMap> maps = new HashMap<String,TileMap>();
+    static HashMap<String,File> mapFolders = new HashMap<String,File>();
+
+    public static void main(String[] args) throws Exception
+    {
+        String filter = null;
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-f")) filter = args[++i];
+            else if (args[i].equals("-wi")) Benchmark.warmupIterations = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-i")) Benchmark.measureIterations = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-t")) Benchmark.iterationTime = Long.parseLong(args[++i]);
+        }
+        if (System.getProperty("java.awt.headless") == null)
+            System.setProperty("java.awt.headless", "true");
+
+        ArrayList<Benchmark> list = new ArrayList<Benchmark>();
+        addTileMapBenchmarks(list);
+        addSpriteBenchmarks(list);
+        addRenderQueueBenchmarks(list);
+        addCompositorBenchmarks(list);
+        addGameBenchmarks(list);
+        Benchmark.runAll(list, filter);
+    }
+
+    /**
+     * Create an offscreen buffer the size of the game window to draw into.
+     */
+    static Graphics2D screen()
+    {
+        BufferedImage buffer = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = buffer.createGraphics();
+        g.setClip(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+        return g;
+    }
+
+    /**
+     * Write a 'width' x 'height' map of grass, dirt, pipe and blank tiles
+     * into a temporary folder, along with its tile images, and load it.
+     */
+    static TileMap generateMap(int width, int height) throws IOException
+    {
+        String key = width + "x" + height;
+        if (maps.containsKey(key)) return maps.get(key);
+
+        File dir = Files.createTempDirectory("bench-map").toFile();
+        dir.deleteOnExit();
+        String[] images = { "grass.png", "dirt.png", "pipe.png" };
+        for (String img : images) {
+            File dest = new File(dir, img);
+            Files.copy(new File("maps", img).toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dest.deleteOnExit();
+        }
+
+        File mapFile = new File(dir, "map.txt");
+        mapFile.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(mapFile));
+        out.println(width + " " + height + " 32 32");
+        out.println("#g=grass.png");
+        out.println("#d=dirt.png");
+        out.println("#p=pipe.png");
+        out.println("#map");
+        Random r = new Random(42);
+        String tiles = "gdp.....";
+        for (int y=0; y<height; y++) {
+            StringBuilder line = new StringBuilder(width);
+            for (int x=0; x<width; x++)
+                line.append(tiles.charAt(r.nextInt(tiles.length())));
+            out.println(line);
+        }
+        out.close();
+
+        TileMap map = new TileMap();
+        if (!map.loadMap(dir.getPath(), "map.txt"))
+            throw new IOException("Failed to load generated map");
+        maps.put(key, map);
+        mapFolders.put(key, dir);
+        return map;
+    }
+
+    static Animation enemyAnimation()
+    {
+        Animation a = new Animation();
+        for (int i=1; i<=7; i++)
+            a.addFrame(CompatibleImages.load("images/e" + i + ".png"), 100);
+        return a;
+    }
+
+    static TextureAtlas atlasFor(TileMap map)
+    {
+        TextureAtlas atlas = new TextureAtlas(TextureAtlas.DEFAULT_PAGE_SIZE);
+        map.addToAtlas(atlas);
+        atlas.pack();
+        return atlas;
+    }
+
+    static void addTileMapBenchmarks(ArrayList<Benchmark> list)
+    {
+        for (final int[] size : SCALING_SIZES) {
+            final String key = size[0] + "x" + size[1];
+            list.add(new Benchmark("TileMap load", "map=" + key + ",text") {
+                File dir;
+                public void setup() throws Exception { generateMap(size[0], size[1]); dir = mapFolders.get(key); }
+                public long op() {
+                    TileMap map = new TileMap();
+                    map.loadMap(dir.getPath(), "map.txt");
+                    return map.getMapWidth();
+                }
+            });
+
+            list.add(new Benchmark("TileMap load", "map=" + key + ",compiled") {
+                File source, compiled;
+                public void setup() throws Exception {
+                    TileMap map = generateMap(size[0], size[1]);
+                    File dir = mapFolders.get(key);
+                    source = new File(dir, "map.txt");
+                    compiled = new File(dir, "map.bin");
+                    compiled.deleteOnExit();
+                    TileMap fresh = new TileMap();
+                    fresh.loadMap(dir.getPath(), "map.txt");
+                    if (!CompiledMap.save(fresh, source, compiled))
+                        throw new IOException("Failed to compile generated map");
+                }
+                public long op() throws IOException {
+                    TileMap map = new TileMap();
+                    if (!CompiledMap.load(map, source, compiled))
+                        throw new IOException("Failed to load compiled map");
+                    return map.getMapWidth();
+                }
+            });
+        }
+
+        for (final int[] size : SCALING_SIZES) {
+            final String key = size[0] + "x" + size[1];
+            final String[] modes = { ",in memory", ",chunked" };
+            for (final String mode : modes) {
+                list.add(new Benchmark("TileMap scroll", "map=" + key + mode) {
+                    TileMap map;
+                    Rectangle ahead = new Rectangle(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+                    public void setup() throws Exception {
+                        map = generateMap(size[0], size[1]);
+                        if (mode.equals(",chunked")) {
+                            File dir = mapFolders.get(key);
+                            File chunks = new File(dir, "map.chunks");
+                            chunks.deleteOnExit();
+                            if (!ChunkedWorld.create(dir.getPath(), "map.txt", chunks, ChunkedWorld.DEFAULT_CHUNK_TILES))
+                                throw new IOException("Failed to convert generated map");
+                            map = new TileMap();
+                            // Enough 64x64 chunks for the screen plus a chunk on each side
+                            if (!map.loadChunked(chunks, 16))
+                                throw new IOException("Failed to open chunk file");
+                        }
+                    }
+                    public long op() {
+                        // Move right a few pixels a frame along the middle
+                        // of the map, then read every tile on screen
+                        ahead.x = (ahead.x + 8) % Math.max(1, map.getPixelWidth() - SCREEN_WIDTH);
+                        ahead.y = Math.max(0, map.getPixelHeight() / 2 - SCREEN_HEIGHT / 2);
+                        map.prefetch(ahead);
+                        long n = 0;
+                        int x0 = ahead.x / 32, y0 = ahead.y / 32;
+                        for (int y=y0; y<y0+19; y++)
+                            for (int x=x0; x<x0+34; x++)
+                                n += map.getTileChar(x, y);
+                        return n;
+                    }
+                });
+            }
+        }
+
+        for (final int[] size : SCALING_SIZES) {
+            list.add(new Benchmark("TileMap.draw visible", "map=" + size[0] + "x" + size[1]) {
+                TileMap map;
+                Graphics2D g;
+                public void setup() throws Exception {
+                    map = generateMap(size[0], size[1]);
+                    map.setCaching(false);
+                    map.setAtlas(null);
+                    g = screen();
+                }
+                // Scroll to the middle of the map so the range is not at an edge
+                public long op() { map.draw(g, -map.getPixelWidth() / 2, -map.getPixelHeight() / 2); return 0; }
+            });
+        }
+
+        for (final int[] size : MAP_SIZES) {
+            String params = "map=" + size[0] + "x" + size[1];
+
+            final String[] modes = { "", ",cached", ",atlas" };
+            for (final String mode : modes) {
+                list.add(new Benchmark("TileMap.draw", params + mode) {
+                    TileMap map;
+                    Graphics2D g;
+                    public void setup() throws Exception {
+                        map = generateMap(size[0], size[1]);
+                        map.setCaching(mode.equals(",cached"));
+                        map.setAtlas(mode.equals(",atlas") ? atlasFor(map) : null);
+                        g = screen();
+                    }
+                    public long op() { map.draw(g, 10, 10); return 0; }
+                });
+            }
+
+            list.add(new Benchmark("TileMap.draw", params + ",cached,1 set") {
+                TileMap map;
+                Graphics2D g;
+                int n;
+                public void setup() throws Exception {
+                    map = generateMap(size[0], size[1]);
+                    map.setCaching(true);
+                    map.setAtlas(null);
+                    g = screen();
+                }
+                public long op() {
+                    // Change one tile per frame, as a lever would
+                    map.setTileChar((n++ & 1) == 0 ? 'g' : '.', 5, 5);
+                    map.draw(g, 10, 10);
+                    return 0;
+                }
+            });
+
+            list.add(new Benchmark("TileMap.getTileImage", params) {
+                TileMap map;
+                public void setup() throws Exception { map = generateMap(size[0], size[1]); }
+                public long op() {
+                    // One lookup for every tile that fits on screen
+                    long n = 0;
+                    for (int y=0; y<19; y++)
+                        for (int x=0; x<33; x++)
+                            if (map.getTileImage(x, y) != null) n++;
+                    return n;
+                }
+            });
+
+            list.add(new Benchmark("TileMap.getTileChar", params) {
+                TileMap map;
+                public void setup() throws Exception { map = generateMap(size[0], size[1]); }
+                public long op() {
+                    long n = 0;
+                    for (int y=0; y<19; y++)
+                        for (int x=0; x<33; x++)
+                            n += map.getTileChar(x, y);
+                    return n;
+                }
+            });
+        }
+    }
+
+    static void addSpriteBenchmarks(ArrayList<Benchmark> list)
+    {
+        for (final int count : ENTITY_COUNTS) {
+            list.add(new Benchmark("Sprite.update", "n=" + count) {
+                Sprite[] sprites;
+                public void setup() {
+                    Animation anim = enemyAnimation();
+                    sprites = new Sprite[count];
+                    for (int i=0; i<count; i++) {
+                        sprites[i] = new Sprite(anim);
+                        sprites[i].setVelocityX(0.04f);
+                        sprites[i].show();
+                    }
+                }
+                public long op() {
+                    for (Sprite s : sprites) s.update(10);
+                    return sprites.length;
+                }
+            });
+        }
+
+        final boolean[] flips = { false, true };
+        for (final boolean flipped : flips) {
+            list.add(new Benchmark("Sprite.draw", "flipped=" + flipped) {
+                Sprite sprite;
+                Graphics2D g;
+                public void setup() {
+                    g = screen();
+                    sprite = new Sprite(enemyAnimation());
+                    sprite.setX(300);
+                    sprite.setY(200);
+                    if (flipped) sprite.flip();
+                    sprite.show();
+                }
+                public long op() { sprite.draw(g); return 0; }
+            });
+        }
+
+        list.add(new Benchmark("Sprite.draw", "flipped=false,atlas") {
+            Sprite sprite;
+            Graphics2D g;
+            public void setup() {
+                g = screen();
+                Animation anim = enemyAnimation();
+                TextureAtlas atlas = new TextureAtlas(TextureAtlas.DEFAULT_PAGE_SIZE);
+                anim.addToAtlas(atlas, "enemy");
+                atlas.pack();
+                anim.setAtlas(atlas, "enemy");
+                sprite = new Sprite(anim);
+                sprite.setX(300);
+                sprite.setY(200);
+                sprite.show();
+            }
+            public long op() { sprite.draw(g); return 0; }
+        });
+
+        list.add(new Benchmark("Sprite.drawTransformed", "scale=3") {
+            Sprite sprite;
+            Graphics2D g;
+            public void setup() {
+                g = screen();
+                Animation a = new Animation();
+                a.addFrame(CompatibleImages.load("images/dot.png"), 100);
+                sprite = new Sprite(a);
+                sprite.setX(300);
+                sprite.setY(200);
+                sprite.setScale(3.0f);
+                sprite.show();
+            }
+            public long op() { sprite.drawTransformed(g); return 0; }
+        });
+
+        list.add(new Benchmark("Sprite.drawTransformed", "scale=3,rotating") {
+            Sprite sprite;
+            Graphics2D g;
+            double angle;
+            public void setup() {
+                g = screen();
+                Animation a = new Animation();
+                a.addFrame(CompatibleImages.load("images/dot.png"), 100);
+                sprite = new Sprite(a);
+                sprite.setX(300);
+                sprite.setY(200);
+                sprite.setScale(3.0f);
+                sprite.show();
+            }
+            public long op() {
+                // One degree per draw, so every rotation step is visited
+                angle = (angle + 1) % 360;
+                sprite.setRotation(angle);
+                sprite.drawTransformed(g);
+                return 0;
+            }
+        });
+
+        list.add(new Benchmark("Animation.update", "frames=7") {
+            Animation anim;
+            public void setup() { anim = enemyAnimation(); }
+            public long op() { anim.update(10); return anim.getImage() == null ? 0 : 1; }
+        });
+    }
+
+    /**
+     * 'count' enemy sprites spread over a world four screens wide, so most
+     * of them are off screen.
+     */
+    static Sprite[] scatteredSprites(int count)
+    {
+        Random r = new Random(42);
+        Animation anim = enemyAnimation();
+        Sprite[] sprites = new Sprite[count];
+        for (int i=0; i<count; i++) {
+            sprites[i] = new Sprite(anim);
+            sprites[i].setX(r.nextInt(SCREEN_WIDTH * 4));
+            sprites[i].setY(r.nextInt(SCREEN_HEIGHT));
+            sprites[i].show();
+        }
+        return sprites;
+    }
+
+    static void addRenderQueueBenchmarks(ArrayList<Benchmark> list)
+    {
+        for (final int count : ENTITY_COUNTS) {
+            list.add(new Benchmark("Sprite.draw each", "n=" + count) {
+                Sprite[] sprites;
+                Graphics2D g;
+                public void setup() { g = screen(); sprites = scatteredSprites(count); }
+                public long op() {
+                    for (Sprite s : sprites) { s.setOffsets(10, 10); s.draw(g); }
+                    return sprites.length;
+                }
+            });
+
+            list.add(new Benchmark("RenderQueue.draw", "n=" + count) {
+                Sprite[] sprites;
+                Graphics2D g;
+                RenderQueue queue = new RenderQueue();
+                public void setup() { g = screen(); sprites = scatteredSprites(count); }
+                public long op() {
+                    queue.clear();
+                    queue.setOffset(10, 10);
+                    for (Sprite s : sprites) queue.addSprite(0, s, false);
+                    queue.draw(g);
+                    return sprites.length;
+                }
+            });
+
+            list.add(new Benchmark("RenderQueue.draw", "n=" + count + ",camera") {
+                Sprite[] sprites;
+                Graphics2D g;
+                RenderQueue queue = new RenderQueue();
+                Camera camera = new Camera(SCREEN_WIDTH, SCREEN_HEIGHT);
+                Rectangle view = new Rectangle();
+                public void setup() {
+                    g = screen();
+                    sprites = scatteredSprites(count);
+                    camera.setWorldSize(SCREEN_WIDTH * 4, SCREEN_HEIGHT);
+                    camera.setBorder(10);
+                    camera.centreOn(sprites[0]);
+                }
+                public long op() {
+                    camera.getView(view);
+                    queue.clear();
+                    queue.setOffset(camera.getXOffset(), camera.getYOffset());
+                    queue.setView(view);
+                    for (Sprite s : sprites) queue.addSprite(0, s, false);
+                    queue.draw(g);
+                    return sprites.length;
+                }
+            });
+        }
+    }
+
+    static void addCompositorBenchmarks(ArrayList<Benchmark> list)
+    {
+        final int[][] sizes = { {SCREEN_WIDTH, SCREEN_HEIGHT}, {1920, 1080} };
+        int cores = Runtime.getRuntime().availableProcessors();
+        final int[] threads = (cores > 1) ? new int[] { 1, cores } : new int[] { 1 };
+        for (final int[] size : sizes) {
+            String params = "screen=" + size[0] + "x" + size[1] + ",n=1000";
+            list.add(new Benchmark("RenderQueue.draw", params) {
+                Sprite[] sprites;
+                Graphics2D g;
+                RenderQueue queue = new RenderQueue();
+                public void setup() {
+                    g = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_RGB).createGraphics();
+                    g.setClip(0, 0, size[0], size[1]);
+                    sprites = screenSprites(1000, size[0], size[1]);
+                }
+                public long op() {
+                    queue.clear();
+                    for (Sprite s : sprites) queue.addSprite(0, s, false);
+                    g.setColor(Color.white);
+                    g.fillRect(0, 0, size[0], size[1]);
+                    queue.draw(g);
+                    return sprites.length;
+                }
+            });
+
+            for (final int n : threads) {
+                list.add(new Benchmark("SoftwareCompositor", params + ",threads=" + n) {
+                    Sprite[] sprites;
+                    Graphics2D g;
+                    RenderQueue queue = new RenderQueue();
+                    SoftwareCompositor comp;
+                    public void setup() {
+                        g = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_RGB).createGraphics();
+                        g.setClip(0, 0, size[0], size[1]);
+                        sprites = screenSprites(1000, size[0], size[1]);
+                        comp = new SoftwareCompositor(size[0], size[1], new ForkJoinPool(n));
+                    }
+                    public long op() {
+                        queue.clear();
+                        for (Sprite s : sprites) queue.addSprite(0, s, false);
+                        comp.begin(null, 0xffffff);
+                        queue.composite(comp, g);
+                        comp.finish();
+                        return sprites.length;
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * 'count' enemy sprites at random positions on a 'w' x 'h' screen.
+     */
+    static Sprite[] screenSprites(int count, int w, int h)
+    {
+        Random r = new Random(42);
+        Animation anim = enemyAnimation();
+        Sprite[] sprites = new Sprite[count];
+        for (int i=0; i<count; i++) {
+            sprites[i] = new Sprite(anim);
+            sprites[i].setX(r.nextInt(w));
+            sprites[i].setY(r.nextInt(h));
+            sprites[i].show();
+        }
+        return sprites;
+    }
+
+    static void addGameBenchmarks(ArrayList<Benchmark> list)
+    {
+        for (final int count : ENTITY_COUNTS) {
+            list.add(new Benchmark("Game.handlePlayerCollisions", "enemies=" + count) {
+                GameWorld world;
+                public void setup() {
+                    world = new GameWorld(SCREEN_WIDTH, SCREEN_HEIGHT);
+                    world.setSound(false);
+                    world.setSeed(1);
+                    world.init();
+                    world.keyReleased(KeyEvent.VK_SPACE);
+                    world.update(10);
+                    // Keep the extra enemies well away from the player so
+                    // every check runs but none of them hit
+                    Animation anim = enemyAnimation();
+                    for (int i=0; i<count; i++) {
+                        Sprite s = new Sprite(anim);
+                        s.setX(i * 7 % 1000);
+                        s.setY(-1000);
+                        s.show();
+                        world.enemies.add(s);
+                    }
+                }
+                public long op() { world.handlePlayerCollisions(10); return world.getTick(); }
+            });
+        }
+
+        // Load the first level with nothing cached, as when the game starts
+        final int[] threads = { 0, 4 };
+        for (final int n : threads) {
+            list.add(new Benchmark("GameWorld.init", n == 0 ? "assets=inline" : "assets=" + n + " threads") {
+                public long op() {
+                    AssetManager assets = new AssetManager(n);
+                    GameWorld world = new GameWorld(SCREEN_WIDTH, SCREEN_HEIGHT);
+                    world.setSound(false);
+                    world.setAssets(assets);
+                    world.init();
+                    assets.shutdown();
+                    return world.enemies.size();
+                }
+            });
+        }
+
+        list.add(new Benchmark("FadeFilterStream.read", "bytes=64k") {
+            FadeFilterStream stream;
+            byte[] buffer = new byte[65536];
+            public void setup() {
+                byte[] samples = new byte[65536];
+                new Random(7).nextBytes(samples);
+                stream = new FadeFilterStream(new ByteArrayInputStream(samples));
+            }
+            public long op() throws IOException {
+                stream.reset();
+                return stream.read(buffer, 0, buffer.length);
+            }
+        });
+    }
+}
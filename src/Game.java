@@ -1,10 +1,10 @@
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
 
 import game2D.*;
 
@@ -15,6 +15,9 @@ import game2D.*;
 // method that will initialise event handlers etc. By default GameCore
 // will handle the 'Escape' key to quit the game but you should
 // override this with your own event handler.
+//
+// The game state and rules live in GameWorld; this class puts
+// them in a window and draws them.
 
 /**
  * @author David Cairns
@@ -27,205 +30,359 @@ public class Game extends GameCore
 	// Useful game constants
 	static int screenWidth = 1056;
 	static int screenHeight = 608;
-	static int tileWidth = 0;
-	static int tileHeight = 0;
-	static int playerTileXL = 0;
-    static int playerTileXR = 0;
-    static int playerTileYT = 0;
-	static int playerTileYB = 0;
-	static int playerXL = 0;
-    static int playerXR = 0;
-    static int playerYT = 0;
-    static int playerYB = 0;
-
-    private enum Screen {
-        START,
-        FAIL,
-        L1,
-        L2,
-        END
-    }
-
-    private Screen screen;
-
-    private String directionString;
-    private boolean showString = false;
-
-    float 	lift = 0.005f;
-    float	gravity = 0.0001f;
-    
-    // Game state flags
-    boolean flap = false;
-    boolean passedL1 = false;
 
-    // Game resources
-    Animation landing;
-    Animation enemyRun;
-    Animation dot;
-    
-    Sprite	player = null;
-    ArrayList<Sprite> dots = new ArrayList<>();
-    ArrayList<Sprite> enemies = new ArrayList<>();
-    ArrayList<Sprite> clouds = new ArrayList<Sprite>();
-
-    Sprite currentDot;
-    int curDotIndex;
-
-    TileMap tmap = new TileMap();	// Our tile map, note that we load it in init()
-    
-    long total;         			// The score will be the total time elapsed since a crash
+    GameWorld world = new GameWorld(screenWidth, screenHeight);
+    InputQueue events = new InputQueue(256);    // Input from the AWT event thread
+    InputHandler input = world;     // Where queued input is applied
+    // Passes queued input on to 'input', turning clicks from screen into
+    // world coordinates on the game thread, where the camera is placed
+    InputHandler toWorld = new InputHandler() {
+        public void keyPressed(int key) { input.keyPressed(key); }
+        public void keyReleased(int key) { input.keyReleased(key); }
+        public void mouseClicked(int x, int y) { input.mouseClicked(camera.toWorldX(x), camera.toWorldY(y)); }
+    };
+    InputRecorder recorder = null;  // Records input if -record was given
+    InputReplayer replayer = null;  // Replays input if -replay was given
+    boolean hashing = false;        // Record or check a state hash every frame
+    TileMap renderMap = null;		// Render thread's copy of the tile map
+
+    // Timers for the parts of a frame we want to keep an eye on
+    LatencyHistogram queueDrawTimes = createTimer("RenderQueue.draw");
+    LatencyHistogram tileDrawTimes = createTimer("TileMap.draw");
+
+    // Draw commands for the current frame, and the layers they go in
+    RenderQueue queue = new RenderQueue();
+    SoftwareCompositor compositor = null;  // Draws the queue on all cores if -compositor was given
+    static final int LAYER_CLOUDS = 0;
+    static final int LAYER_DOTS = 1;
+    static final int LAYER_ENEMIES = 2;
+    static final int LAYER_TEXT = 3;
+    static final int LAYER_PLAYER = 4;
+    static final int LAYER_TILES = 5;
+
+    // Follows the player around the map. It is moved on the simulation
+    // thread and its offsets are copied into 'xo' and 'yo' for each frame
+    Camera camera = new Camera(screenWidth, screenHeight);
+    TileMap cameraMap = null;       // The map the camera was last placed in
+    int xo = 10;                    // How far to shift the view in x
+    int yo = 10;                    // How far to shift the view in y
+    Rectangle view = new Rectangle();  // The part of the map on screen
+    Rectangle ahead = new Rectangle(); // The part of the map the camera has moved to
+
+    // Where the progress bar is drawn on the LOADING screen
+    static final Rectangle LOADING_BAR = new Rectangle(430, 260, 200, 10);
+
+    // The START, FAIL and END screens, drawn once and then copied to the screen
+    EnumMap<GameWorld.Screen,BufferedImage> screenImages = new EnumMap<GameWorld.Screen,BufferedImage>(GameWorld.Screen.class);
+
+    // What was drawn last frame, used by collectDirty() to work out what changed
+    GameWorld.Screen lastScreen = null;
+    TileMap lastMap = null;
+    boolean lastShowString = false;
+    int lastXo = 0, lastYo = 0;
+    IdentityHashMap<Sprite,Drawn> lastDrawn = new IdentityHashMap<Sprite,Drawn>();
+    Rectangle bounds = new Rectangle();
+
+    // Where a sprite was drawn last frame and with which image
+    static class Drawn {
+        Rectangle bounds;
+        Image image;
+    }
 
 
     /**
 	 * The obligatory main method that creates
      * an instance of our class and starts it running
      * 
-     * @param args	The list of parameters this program might use (ignored)
+     * @param args	The list of parameters this program might use:
+     * 				-threaded, -dirty, -compositor, -atlas, -stats, -record file, -replay file and -hash
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws java.io.IOException {
 
         Game gct = new Game();
+        String recordFile = null;
+        // Simulate in fixed 10ms steps so physics does not depend on frame rate
+        gct.setFixedTimestep(10, 5);
+        // Optionally draw on a separate thread from the simulation
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-threaded")) gct.setRenderThread(true);
+            if (args[i].equals("-dirty")) gct.setDirtyRendering(true);
+            if (args[i].equals("-compositor"))
+                gct.compositor = new SoftwareCompositor(screenWidth, screenHeight, null);
+            if (args[i].equals("-atlas")) gct.world.setAtlasFolder("cache/atlas");
+            if (args[i].equals("-stats")) gct.setDumpStatsOnExit(true);
+            if (args[i].equals("-hash")) gct.hashing = true;
+            if (args[i].equals("-record")) recordFile = args[++i];
+            if (args[i].equals("-replay")) {
+                gct.replayer = new InputReplayer(args[++i]);
+                gct.world.setSeed(gct.replayer.getSeed());
+            }
+        }
+        if (recordFile != null) {
+            gct.recorder = new InputRecorder(recordFile, gct.world.getSeed(), gct.world);
+            gct.input = gct.recorder;
+        }
+        gct.world.setMapCache("cache/maps");
+        // Load levels in the background, unless the run has to match a
+        // recording update for update
+        if (gct.recorder == null && gct.replayer == null)
+            gct.world.setAssets(new AssetManager());
         gct.init();
         // Start in windowed mode with the given screen height and width
         gct.run(false,screenWidth,screenHeight);
     }
 
-    private void clearAll() {
-        tmap = new TileMap();
-        enemies.clear();
-        dots.clear();
-    }
-
     /**
      * Initialise the class, e.g. set up variables, load images,
      * create animations, register event handlers
      */
     public void init()
     {
-        screen = Screen.START;
-        initL1();
+        world.init();
+        addTimer(world.collisionTimes);
+        camera.setBorder(10);
     }
 
-    private void addEnemy(int x, int y) {
-        Sprite s = new Sprite(enemyRun);
-        s.setX(x * tileWidth);
-        s.setY(y * tileHeight + 9);
-        s.setVelocityX(0.04f);
-        s.show();
-        enemies.add(s);
+    /**
+     * Draw the current state of the game, placing each sprite 'alpha' of
+     * the way between its previous and current position.
+     */
+    public void draw(Graphics2D g, float alpha)
+    {
+        setInterpolation(alpha);
+        draw(g);
     }
 
-    private void addDot(int x, int y) {
-        Sprite s = new Sprite(dot);
-        s.setX(x * tileWidth);
-        s.setY(y * tileHeight + 5);
-        s.hide();
-        dots.add(s);
+    /**
+     * Place each sprite and the camera 'alpha' of the way between their
+     * previous and current positions.
+     */
+    private void setInterpolation(float alpha)
+    {
+        for (Sprite s: world.clouds) s.setInterpolation(alpha);
+        for (Sprite s: world.dots) s.setInterpolation(alpha);
+        for (Sprite s: world.enemies) s.setInterpolation(alpha);
+        world.player.setInterpolation(alpha);
+        camera.setInterpolation(alpha);
     }
 
-    private void initL1() {
-        Sprite s;	// Temporary reference to a sprite
-
-        // Load the tile map and print it out so we can check it is valid
-        tmap.loadMap("maps", "map.txt");
-        tileWidth = tmap.getTileWidth();
-        tileHeight = tmap.getTileHeight();
-
-        // Create a set of background sprites that we can
-        // rearrange to give the illusion of motion
-
-        landing = new Animation();
-        landing.loadAnimationFromSheet("images/landbird.png", 4, 1, 60);
-
-        // Initialise the player with an animation
-        player = new Sprite(landing);
-
-        // Load a single cloud animation
-        Animation ca = new Animation();
-        ca.addFrame(loadImage("images/cloud.png"), 1000);
-
-        enemyRun = new Animation();
-        enemyRun.addFrame(loadImage("images/e1.png"), 100);
-        enemyRun.addFrame(loadImage("images/e2.png"), 100);
-        enemyRun.addFrame(loadImage("images/e3.png"), 100);
-        enemyRun.addFrame(loadImage("images/e4.png"), 100);
-        enemyRun.addFrame(loadImage("images/e5.png"), 100);
-        enemyRun.addFrame(loadImage("images/e6.png"), 100);
-        enemyRun.addFrame(loadImage("images/e7.png"), 100);
-
-        dot = new Animation();
-        dot.addFrame(loadImage("images/dot.png"), 100);
-
-        addEnemy(26, 6);
-        addEnemy(26, 14);
-        addEnemy(16, 8);
-        addEnemy(10, 10);
-        addEnemy(2, 14);
-        addEnemy(14, 13);
-
-        addDot(10, 4);
-        addDot(11, 15);
-        addDot(4, 15);
-        addDot(27, 5);
-        addDot(12, 10);
-
-        directionString = "proceed here for level 2 ->";
-
-        // Create 3 clouds at random positions off the screen
-        // to the right
-        for (int c=0; c<3; c++)
-        {
-            s = new Sprite(ca);
-            s.setX(screenWidth + (int)(Math.random()*200.0f));
-            s.setY(30 + (int)(Math.random()*150.0f));
-            s.setVelocityX(-0.02f);
-            clouds.add(s);
+    /**
+     * Draw the current state of the game
+     */
+    public void draw(Graphics2D g)
+    {    	
+    	// Be careful about the order in which you draw objects - you
+    	// should draw the background first, then work your way 'forward'
+
+    	// The view is shifted by 'xo' and 'yo' so we can see where the player is.
+        xo = camera.getXOffset();
+        yo = camera.getYOffset();
+
+        if (world.screen == GameWorld.Screen.LOADING) {
+            drawLoadingScreen(g);
+        } else if (world.screen == GameWorld.Screen.START || world.screen == GameWorld.Screen.FAIL || world.screen == GameWorld.Screen.END) {
+            drawStaticScreen(g, world.screen);
+        } else {
+            g.setColor(Color.white);
+            g.fillRect(0, 0, getWidth(), getHeight());
+
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+            queueFrame(clip);
+
+            long t = System.nanoTime();
+            if (compositor != null) {
+                if (compositor.getImage().getWidth() != getWidth() || compositor.getImage().getHeight() != getHeight())
+                    compositor.setSize(getWidth(), getHeight());
+                compositor.begin(clip, Color.white.getRGB());
+                queue.composite(compositor, g);
+                compositor.finish();
+                g.drawImage(compositor.getImage(), 0, 0, null);
+            } else {
+                queue.draw(g);
+            }
+            queueDrawTimes.record(System.nanoTime() - t);
         }
+    }
 
-        dots.get(0).show();
-        currentDot = dots.get(0);
-        curDotIndex = 0;
+    /**
+     * Redraw the dirty rectangles of a level. The queue is built and sorted
+     * once for the area they cover and then drawn once per rectangle, rather
+     * than built again for each one. Other screens, and the compositor, are
+     * drawn a rectangle at a time as usual.
+     */
+    public void drawRegions(Graphics2D g, ArrayList<Rectangle> rects, float alpha)
+    {
+        if (compositor != null || rects.isEmpty() ||
+            !(world.screen == GameWorld.Screen.L1 || world.screen == GameWorld.Screen.L2)) {
+            super.drawRegions(g, rects, alpha);
+            return;
+        }
 
-        initialiseGame();
+        setInterpolation(alpha);
+        xo = camera.getXOffset();
+        yo = camera.getYOffset();
+        Rectangle area = new Rectangle(rects.get(0));
+        for (Rectangle r : rects) area.add(r);
+        queueFrame(area);
+
+        long t = System.nanoTime();
+        for (Rectangle r : rects) {
+            g.setClip(r);
+            g.setColor(Color.white);
+            g.fillRect(r.x, r.y, r.width, r.height);
+            queue.draw(g);
+        }
+        queueDrawTimes.record(System.nanoTime() - t);
+    }
 
-        System.out.println(tmap);
+    /**
+     * Queue everything on screen by layer, so it can be drawn in one pass
+     * with the view offset applied once. Only the tiles inside 'clip' (in
+     * screen pixels) are queued.
+     */
+    private void queueFrame(Rectangle clip)
+    {
+        camera.getView(view);
+
+        queue.clear();
+        queue.setOffset(xo, yo);
+        queue.setView(view);
+        for (Sprite s: world.clouds) queue.addSprite(LAYER_CLOUDS, s, true);
+        for (Sprite s: world.dots) queue.addSprite(LAYER_DOTS, s, true);
+        for (Sprite s: world.enemies) queue.addSprite(LAYER_ENEMIES, s, false);
+        if (world.showString) queue.addText(LAYER_TEXT, world.directionString, 830, 380, Color.black);
+        queue.addSprite(LAYER_PLAYER, world.player, false);
+        queue.addTileMap(LAYER_TILES, world.tmap, clip);
     }
 
     /**
-     * You will probably want to put code to restart a game in
-     * a separate method so that you can call it to restart
-     * the game.
+     * Add the parts of the screen that changed since the last frame: the old
+     * and new areas of every sprite that moved, appeared or disappeared, the
+     * direction text when it is shown or hidden, and any tiles that changed.
+     * A change of screen or map, or a camera move, redraws everything.
      */
-    public void initialiseGame()
+    public void collectDirty(DirtyRegions regions, float alpha)
     {
-    	total = 0;
-
-    	if (!(screen == Screen.START)) {
-            player.setX(64);
-            player.setY(280);
-            player.setVelocityX(0);
-            player.setVelocityY(0);
-            player.show();
+        camera.setInterpolation(alpha);
+        xo = camera.getXOffset();
+        yo = camera.getYOffset();
+        if (world.screen != lastScreen || world.tmap != lastMap || xo != lastXo || yo != lastYo) {
+            regions.addAll();
+            lastScreen = world.screen;
+            lastMap = world.tmap;
+            lastXo = xo;
+            lastYo = yo;
+            lastDrawn.clear();
+        }
+        if (world.screen == GameWorld.Screen.LOADING) regions.add(LOADING_BAR);
+        if (!(world.screen == GameWorld.Screen.L1 || world.screen == GameWorld.Screen.L2)) return;
+
+        addDirtySprites(regions, world.clouds, true, alpha);
+        addDirtySprites(regions, world.dots, true, alpha);
+        addDirtySprites(regions, world.enemies, false, alpha);
+        addDirtySprite(regions, world.player, false, alpha);
+
+        if (world.showString != lastShowString) {
+            FontMetrics fm = getFontMetrics(getFont());
+            regions.add(830, 380 - fm.getAscent(), fm.stringWidth(world.directionString), fm.getHeight());
+            lastShowString = world.showString;
         }
+
+        world.tmap.addDirtyTiles(regions, xo, yo);
+    }
+
+    private void addDirtySprites(DirtyRegions regions, ArrayList<Sprite> sprites, boolean transformed, float alpha)
+    {
+        for (Sprite s : sprites) addDirtySprite(regions, s, transformed, alpha);
     }
-    
+
     /**
-     * Draw the current state of the game
+     * Add the old and new areas of 's' if it has moved, changed image,
+     * appeared or disappeared since the last frame.
      */
-    public void draw(Graphics2D g)
-    {    	
-    	// Be careful about the order in which you draw objects - you
-    	// should draw the background first, then work your way 'forward'
+    private void addDirtySprite(DirtyRegions regions, Sprite s, boolean transformed, float alpha)
+    {
+        Drawn last = lastDrawn.get(s);
+        if (!s.isVisible()) {
+            if (last != null) {
+                regions.add(last.bounds);
+                lastDrawn.remove(s);
+            }
+            return;
+        }
 
-    	// First work out how much we need to shift the view 
-    	// in order to see where the player is.
-        int xo = 10;
-        int yo = 10;
-        
+        s.setInterpolation(alpha);
+        s.setOffsets(xo, yo);
+        s.getDrawBounds(bounds, transformed);
+        Image image = transformed ? s.getImage() : s.getDrawImage();
+        if (last == null) {
+            last = new Drawn();
+            last.bounds = new Rectangle(bounds);
+            last.image = image;
+            lastDrawn.put(s, last);
+            regions.add(bounds);
+        } else if (!last.bounds.equals(bounds) || last.image != image) {
+            regions.add(last.bounds);
+            regions.add(bounds);
+            last.bounds.setBounds(bounds);
+            last.image = image;
+        }
+    }
+
+    /**
+     * Nothing changes on the START, FAIL and END screens until a key is
+     * pressed, so the game loop can sleep while one is shown. Replays keep
+     * running, since their input does not come from the window.
+     */
+    public boolean isIdle()
+    {
+        return replayer == null && (world.screen == GameWorld.Screen.START ||
+                world.screen == GameWorld.Screen.FAIL || world.screen == GameWorld.Screen.END);
+    }
+
+    /**
+     * Draw the LOADING screen, with a bar showing how much of the level has
+     * loaded. The progress is safe to read from the render thread.
+     */
+    private void drawLoadingScreen(Graphics2D g)
+    {
         g.setColor(Color.white);
         g.fillRect(0, 0, getWidth(), getHeight());
+        g.setColor(Color.black);
+        g.drawString("Loading...", 490, 250);
+        g.drawRect(LOADING_BAR.x, LOADING_BAR.y, LOADING_BAR.width - 1, LOADING_BAR.height - 1);
+        int w = Math.round((LOADING_BAR.width - 4) * world.getLoadProgress().getFraction());
+        g.fillRect(LOADING_BAR.x + 2, LOADING_BAR.y + 2, w, LOADING_BAR.height - 4);
+    }
 
-        if (screen == Screen.START) {
+    /**
+     * Copy the START, FAIL or END screen to 'g', drawing it into an image
+     * the first time it is shown at this window size.
+     */
+    private void drawStaticScreen(Graphics2D g, GameWorld.Screen s)
+    {
+        BufferedImage img = screenImages.get(s);
+        if (img == null || img.getWidth() != getWidth() || img.getHeight() != getHeight()) {
+            img = CompatibleImages.createImage(Math.max(1, getWidth()), Math.max(1, getHeight()), Transparency.OPAQUE);
+            Graphics2D ig = img.createGraphics();
+            ig.setRenderingHints(g.getRenderingHints());
+            ig.setFont(g.getFont());
+            ig.setColor(Color.white);
+            ig.fillRect(0, 0, img.getWidth(), img.getHeight());
+            drawScreenText(ig, s);
+            ig.dispose();
+            screenImages.put(s, img);
+        }
+        g.drawImage(img, 0, 0, null);
+    }
+
+    /**
+     * Draw the text shown on the START, FAIL and END screens
+     */
+    private void drawScreenText(Graphics2D g, GameWorld.Screen s)
+    {
+        if (s == GameWorld.Screen.START) {
             g.setColor(Color.black);
             g.drawString("Welcome to the CSCU9N6 demo!", 430, 230);
             g.drawString("Control the bird with arrow keys", 430, 250);
@@ -234,49 +391,68 @@ public class Game extends GameCore
             g.drawString("Do not touch the aliens!", 430, 310);
             g.drawString("Press Esc to exit", 430, 330);
             g.drawString("Press Space to start the level", 430, 350);
-        } else if (screen == Screen.FAIL) {
+        } else if (s == GameWorld.Screen.FAIL) {
             g.setColor(Color.black);
             g.drawString("You died!", 490, 230);
             g.drawString("Press space bar to restart the level", 430, 250);
-        } else if (screen == Screen.END) {
+        } else if (s == GameWorld.Screen.END) {
             g.setColor(Color.black);
             g.drawString("Demo over!", 490, 230);
             g.drawString("Thank you for playing!", 470, 250);
-        } else {
-            // Apply offsets to sprites then draw them
-            for (Sprite s: clouds)
-            {
-                s.setOffsets(xo,yo);
-                s.drawTransformed(g);
-            }
+        }
+    }
 
-            for (Sprite s: dots) {
-                s.setOffsets(xo,yo);
-                s.setScale(3.0f);
-                s.drawTransformed(g);
-//            g.setColor(Color.blue);
-//            g.drawRect((int)s.getX() + 10,
-//                    (int)s.getY() + 10,
-//                    s.getImage().getWidth(null)*3,
-//                    s.getImage().getHeight(null)*3);
-            }
+    /**
+     * Copy the state needed to draw the current frame into 'snap'. This runs
+     * on the simulation thread when the game is started with -threaded.
+     */
+    public void captureSnapshot(RenderSnapshot snap)
+    {
+        snap.setState(world.screen.ordinal());
+        if (!(world.screen == GameWorld.Screen.L1 || world.screen == GameWorld.Screen.L2)) {
+            snap.setTileMap(null);
+            return;
+        }
 
-            for (Sprite s : enemies) {
-                s.setOffsets(xo, yo);
-                s.draw(g);
-            }
+        for (Sprite s: world.clouds) snap.addSprite(s, true);
+        for (Sprite s: world.dots) snap.addSprite(s, true);
+        for (Sprite s: world.enemies) snap.addSprite(s, false);
+        if (world.showString) snap.addText(world.directionString, 830, 380, Color.black);
+        snap.addSprite(world.player, false);
+        snap.setTileMap(world.tmap);
+        snap.getCamera().set(camera);
+    }
 
-            if (showString) {
-                g.setColor(Color.black);
-                g.drawString(directionString, 830, 380);
-            }
+    /**
+     * Draw a frame from a snapshot taken by captureSnapshot(). This runs on
+     * the render thread and must not touch the live game state.
+     */
+    public void drawSnapshot(Graphics2D g, RenderSnapshot snap, float alpha)
+    {
+        GameWorld.Screen s = GameWorld.Screen.values()[snap.getState()];
+        if (s == GameWorld.Screen.LOADING) {
+            drawLoadingScreen(g);
+            return;
+        }
+        if (!(s == GameWorld.Screen.L1 || s == GameWorld.Screen.L2)) {
+            drawStaticScreen(g, s);
+            return;
+        }
 
-            // Apply offsets to player and draw
-            player.setOffsets(xo, yo);
-            player.draw(g);
+        g.setColor(Color.white);
+        g.fillRect(0, 0, getWidth(), getHeight());
 
-            // Apply offsets to tile map and draw  it
-            tmap.draw(g,xo,yo);
+        Camera cam = snap.getCamera();
+        cam.setInterpolation(alpha);
+        int xo = cam.getXOffset();
+        int yo = cam.getYOffset();
+
+        snap.draw(g, xo, yo, alpha);
+        renderMap = snap.syncTiles(renderMap);
+        if (renderMap != null) {
+            long t = System.nanoTime();
+            renderMap.draw(g, xo, yo);
+            tileDrawTimes.record(System.nanoTime() - t);
         }
     }
 
@@ -287,171 +463,53 @@ public class Game extends GameCore
      */    
     public void update(long elapsed)
     {
-
-        if (!(screen == Screen.L1 || screen == Screen.L2)) return;
-    	
-        // Make adjustments to the speed of the sprite due to gravity
-        player.setVelocityY(player.getVelocityY()+(gravity*elapsed));
-    	    	
-       	player.setAnimationSpeed(1.0f);
-       	
-       	if (flap) 
-       	{
-       		player.setAnimationSpeed(1.8f);
-       		player.setVelocityY(-0.08f);
-       	}
-                
-       	for (Sprite s: clouds)
-       		s.update(elapsed);
-
-       	for (Sprite s: enemies)
-       	    s.update(elapsed);
-
-        for (Sprite s: dots)
-            s.update(elapsed);
-       	
-        // Now update the sprites animation and position
-        player.update(elapsed);
-        updatePlayerCoords();
-       
-        // Then check for any collisions that may have occurred
-        handlePlayerCollisions(elapsed);
-        handleEnemyTileEdges();
+        // Apply the input that has arrived since the last update, so the
+        // world is only ever changed on this thread
+        long frame = world.getTick();
+        if (recorder != null) recorder.setFrame(frame);
+        events.drain(toWorld);
+        if (replayer != null) replayer.apply(frame, world);
+
+        world.update(elapsed);
+        updateCamera();
+
+        if (hashing && recorder != null) recorder.recordHash(frame, world.stateHash());
+        if (hashing && replayer != null && !replayer.checkFrame(frame, world.stateHash()))
+            if (replayer.getDivergence() == frame) System.err.println("Replay diverged at frame " + frame);
     }
-    
-    
+
     /**
-     * Checks and handles collisions with the tile map for the
-     * given sprite 's'. Initial functionality is limited...
-     *
-     * @param elapsed	How time has gone by
+     * Move the camera after the player, or centre it on the player when a
+     * level has just started, and let the map know which part of it will be
+     * shown next.
      */
-    public void handlePlayerCollisions(long elapsed)
+    private void updateCamera()
     {
-    	// This method should check actual tile map collisions. For
-    	// now it just checks if the player has gone off the bottom
-    	// of the tile map.
+        if (!(world.screen == GameWorld.Screen.L1 || world.screen == GameWorld.Screen.L2)) return;
 
-        if (screen == Screen.FAIL || screen == Screen.END) return;
-    	
-        if (player.getX()  > tmap.getPixelWidth()) {
-            if (passedL1) {
-                clearAll();
-                screen = Screen.END;
-            } else {
-                showString = false;
-
-                passedL1 = true;
-                screen = Screen.L2;
-                clearAll();
-                initL2();
-            }
-        }
-
-        if (tmap.valid(playerTileXL, playerTileYT) && tmap.valid(playerTileXL, playerTileYB)) {
-            if (tmap.getTileChar(playerTileXL, playerTileYT) != '.') {
-                player.setX((playerTileXL + 1) * tileWidth - 13);
-                updatePlayerCoords();
-                player.setVelocityX(0.0f);
-            }
-        }
-
-        if (tmap.valid(playerTileXR, playerTileYT) && tmap.valid(playerTileXR, playerTileYB)) {
-            if (tmap.getTileChar(playerTileXR, playerTileYT) != '.') {
-                player.setX((playerTileXR * tileWidth - (playerXR - playerXL) - 18));
-                updatePlayerCoords();
-                player.setVelocityX(0.0f);
-            }
-        }
-
-        if (tmap.valid(playerTileXL, playerTileYB) && tmap.valid(playerTileXR, playerTileYB)) {
-            if (tmap.getTileChar(playerTileXL, playerTileYB) != '.' ||
-                    tmap.getTileChar(playerTileXR, playerTileYB) != '.') {
-                player.setY(playerTileYB * tileHeight - (playerYB - playerYT) - 5);
-                updatePlayerCoords();
-                player.setVelocityY(-player.getVelocityY() * (0.03f * elapsed));
-            }
-        }
-
-        if (tmap.valid(playerTileXL, playerTileYT) && tmap.valid(playerTileXR, playerTileYT)) {
-            if (tmap.getTileChar(playerTileXL, playerTileYT) != '.' ||
-                    tmap.getTileChar(playerTileXR, playerTileYT) != '.') {
-                player.setY((playerTileYT + 1) * tileHeight + 5);
-                updatePlayerCoords();
-                player.setVelocityY(-player.getVelocityY() * (0.03f * elapsed));
-            }
-        }
-
-        for (Sprite s : enemies) {
-            if (playerXR >= s.getX() + 15 && playerXL <= s.getX() + s.getWidth() - 15 &&
-                playerYB >= s.getY() + 15 && playerYT <= s.getY() + s.getHeight() - 10) {
-
-                Sound caw = new Sound("sounds/caw.wav");
-                caw.start();
-                screen = Screen.FAIL;
-                clearAll();
-                return;
-            }
+        if (getWidth() > 0 && getHeight() > 0) camera.setViewSize(getWidth(), getHeight());
+        if (world.tmap != cameraMap) {
+            camera.setWorldSize(world.tmap.getPixelWidth(), world.tmap.getPixelHeight());
+            camera.centreOn(world.player);
+            cameraMap = world.tmap;
+        } else {
+            camera.follow(world.player);
         }
 
-        if (playerXR >= currentDot.getX() + 10 &&
-                playerXL <= currentDot.getX() + (currentDot.getWidth() * 3) &&
-                playerYB >= currentDot.getY() + 10 &&
-                playerYT <= currentDot.getY() + (currentDot.getHeight() * 3)) {
-            currentDot.hide();
-            curDotIndex++;
-            if (curDotIndex < dots.size()) {
-                Sound boop = new Sound("sounds/boop.wav");
-                boop.start();
-                currentDot = dots.get(curDotIndex);
-                currentDot.show();
-            } else {
-                Sound groovey = new Sound("sounds/groovey.wav");
-                groovey.start();
-                if (screen == Screen.L1) {
-                    tmap.setTileChar('b', 31, 9);
-                    tmap.setTileChar('.', 31, 10);
-                    tmap.setTileChar('.', 31, 11);
-                    tmap.setTileChar('t', 31, 12);
-                } else if (screen == Screen.L2) {
-                    tmap.setTileChar('b', 31, 10);
-                    tmap.setTileChar('.', 31, 11);
-                    tmap.setTileChar('.', 31, 12);
-                    tmap.setTileChar('t', 31, 13);
-                }
-                showString = true;
-            }
-        }
-    }
-    
-    private void updatePlayerCoords() {
-        playerXL = (int)player.getX() + 15;
-        playerXR = playerXL + player.getImage().getWidth(null) - 25;
-        playerYT = (int)player.getY() + 5;
-        playerYB = playerYT + player.getImage().getHeight(null) - 10;
-        playerTileXL = playerXL / tileWidth;
-        playerTileXR = playerXR / tileWidth;
-        playerTileYT = playerYT / tileHeight;
-        playerTileYB = playerYB / tileHeight;
+        // Streamed maps start reading the chunks around the new view
+        camera.getView(ahead);
+        world.tmap.prefetch(ahead);
     }
 
-    private void handleEnemyTileEdges() {
-        for (Sprite s : enemies) {
-            int spriteTileR = (int)(s.getX() + s.getImage().getWidth(null) - 10) / tileWidth;
-            int spriteTileL = (int) (s.getX() + 15) / tileWidth;
-            int spriteTileB = (int) (s.getY() + s.getImage().getWidth(null) + 20) / tileHeight;
-            if (tmap.getTileChar(spriteTileR, spriteTileB) != 'g') {
-                s.setX(s.getX() - 3);
-                s.flip();
-                s.setVelocityX(-s.getVelocityX());
-            } else if (tmap.getTileChar(spriteTileL, spriteTileB) != 'g') {
-                s.setX(s.getX() + 3);
-                s.flip();
-                s.setVelocityX(-s.getVelocityX());
-            }
-        }
+    /**
+     * Close the input recording, if there is one, and the world before exiting
+     */
+    public void shutdown()
+    {
+        if (recorder != null) recorder.close();
+        world.shutdown();
     }
-     
+
     /**
      * Override of the keyPressed event defined in GameCore to catch our
      * own events
@@ -463,192 +521,24 @@ public class Game extends GameCore
     	int key = e.getKeyCode();
     	
     	if (key == KeyEvent.VK_ESCAPE) stop();
-    	
-    	if (key == KeyEvent.VK_UP) flap = true;
-
-    	if (key == KeyEvent.VK_RIGHT) player.setVelocityX(0.14f);
 
-        if (key == KeyEvent.VK_LEFT) player.setVelocityX(-0.14f);
+    	if (replayer == null) events.keyPressed(key);
     }
 
+    /**
+     * Queue a mouse click at its screen position. It is converted to world
+     * coordinates when update() applies it
+     */
     public void mouseClicked(MouseEvent e) {
-        int x = e.getX() / tileWidth;
-        int y = e.getY() / tileHeight;
-        if (screen == screen.L1) {
-            if (x >= 18 && x <= 19 && y >= 15 && y <= 16) {
-                Sound lever = new Sound("sounds/lever.wav");
-                lever.start();
-                if (tmap.getTileChar(18, 15) == 'l') {
-                    tmap.setTileChar('r', 18, 15);
-                    tmap.setTileChar('p', 5, 6);
-                    tmap.setTileChar('b', 5, 7);
-                    tmap.setTileChar('t', 5, 8);
-                    tmap.setTileChar('p', 5, 9);
-
-                    tmap.setTileChar('b', 20, 7);
-                    tmap.setTileChar('.', 20, 8);
-                    tmap.setTileChar('.', 20, 9);
-                    tmap.setTileChar('t', 20, 10);
-                } else {
-                    tmap.setTileChar('l', 18, 15);
-                    tmap.setTileChar('b', 5, 6);
-                    tmap.setTileChar('.', 5, 7);
-                    tmap.setTileChar('.', 5, 8);
-                    tmap.setTileChar('t', 5, 9);
-
-                    tmap.setTileChar('p', 20, 7);
-                    tmap.setTileChar('b', 20, 8);
-                    tmap.setTileChar('t', 20, 9);
-                    tmap.setTileChar('p', 20, 10);
-                }
-            }
-        } else if (screen == Screen.L2) {
-            if (x >= 15 && x <= 16 && y >= 6 && y <= 7) {
-                Sound lever = new Sound("sounds/lever.wav");
-                lever.start();
-                if (tmap.getTileChar(15, 6) == 'l') {
-                    tmap.setTileChar('r', 15, 6);
-                    tmap.setTileChar('p', 10, 2);
-                    tmap.setTileChar('b', 10, 3);
-                    tmap.setTileChar('t', 10, 4);
-                    tmap.setTileChar('p', 10, 5);
-
-                    tmap.setTileChar('x', 4, 10);
-                    tmap.setTileChar('c', 5, 10);
-                    tmap.setTileChar('z', 6, 10);
-                    tmap.setTileChar('x', 7, 10);
-//
-                    tmap.setTileChar('b', 20, 2);
-                    tmap.setTileChar('.', 20, 3);
-                    tmap.setTileChar('.', 20, 4);
-                    tmap.setTileChar('t', 20, 5);
-
-                    tmap.setTileChar('c', 24, 10);
-                    tmap.setTileChar('.', 25, 10);
-                    tmap.setTileChar('.', 26, 10);
-                    tmap.setTileChar('z', 27, 10);
-                } else {
-                    tmap.setTileChar('l', 15, 6);
-                    tmap.setTileChar('b', 10, 2);
-                    tmap.setTileChar('.', 10, 3);
-                    tmap.setTileChar('.', 10, 4);
-                    tmap.setTileChar('t', 10, 5);
-
-                    tmap.setTileChar('c', 4, 10);
-                    tmap.setTileChar('.', 5, 10);
-                    tmap.setTileChar('.', 6, 10);
-                    tmap.setTileChar('z', 7, 10);
-//
-                    tmap.setTileChar('p', 20, 2);
-                    tmap.setTileChar('b', 20, 3);
-                    tmap.setTileChar('t', 20, 4);
-                    tmap.setTileChar('p', 20, 5);
-
-                    tmap.setTileChar('x', 24, 10);
-                    tmap.setTileChar('c', 25, 10);
-                    tmap.setTileChar('z', 26, 10);
-                    tmap.setTileChar('x', 27, 10);
-                }
-            }
-        }
+        if (replayer == null) events.mouseClicked(e.getX(), e.getY());
     }
 
-    public boolean boundingBoxCollision(Sprite s1, Sprite s2)
-    {
-    	return false;   	
-    }
-
-
 	public void keyReleased(KeyEvent e) { 
 
 		int key = e.getKeyCode();
 
-		// Switch statement instead of lots of ifs...
-		// Need to use break to prevent fall through.
-		switch (key)
-		{
-			case KeyEvent.VK_ESCAPE : stop(); break;
-			case KeyEvent.VK_UP     : flap = false; break;
-			case KeyEvent.VK_RIGHT: player.setVelocityX(0.0f); break;
-            case KeyEvent.VK_LEFT: player.setVelocityX(0.0f); break;
-            case KeyEvent.VK_SPACE:
-                if (screen == Screen.START || screen == Screen.FAIL) {
-                    if (passedL1) {
-                        screen = Screen.L2;
-                        clearAll();
-                        initL2();
-                    } else {
-                        screen = Screen.L1;
-                        clearAll();
-                        initL1();
-                    }
-                }
-			default :  break;
-		}
-	}
-
-	private void initL2() {
-        Sprite s;	// Temporary reference to a sprite
-
-        // Load the tile map and print it out so we can check it is valid
-        tmap.loadMap("maps", "map2.txt");
-        tileWidth = tmap.getTileWidth();
-        tileHeight = tmap.getTileHeight();
-
-        // Create a set of background sprites that we can
-        // rearrange to give the illusion of motion
-
-        landing = new Animation();
-        landing.loadAnimationFromSheet("images/landbird.png", 4, 1, 60);
-
-        // Initialise the player with an animation
-        player = new Sprite(landing);
+		if (key == KeyEvent.VK_ESCAPE) stop();
 
-        // Load a single cloud animation
-        Animation ca = new Animation();
-        ca.addFrame(loadImage("images/cloud.png"), 1000);
-
-        enemyRun = new Animation();
-        enemyRun.addFrame(loadImage("images/e1.png"), 100);
-        enemyRun.addFrame(loadImage("images/e2.png"), 100);
-        enemyRun.addFrame(loadImage("images/e3.png"), 100);
-        enemyRun.addFrame(loadImage("images/e4.png"), 100);
-        enemyRun.addFrame(loadImage("images/e5.png"), 100);
-        enemyRun.addFrame(loadImage("images/e6.png"), 100);
-        enemyRun.addFrame(loadImage("images/e7.png"), 100);
-
-        dot = new Animation();
-        dot.addFrame(loadImage("images/dot.png"), 100);
-
-        addEnemy(4, 14);
-        addEnemy(23, 11);
-        addEnemy(16, 8);
-        addEnemy(25, 4);
-        addEnemy(2, 4);
-//
-        addDot(2, 12);
-        addDot(20, 12);
-        addDot(15, 5);
-        addDot(7, 4);
-        addDot(21, 5);
-
-        directionString = "proceed here to end demo ->";
-
-        // Create 3 clouds at random positions off the screen
-        // to the right
-        for (int c=0; c<3; c++)
-        {
-            s = new Sprite(ca);
-            s.setX(screenWidth + (int)(Math.random()*200.0f));
-            s.setY(30 + (int)(Math.random()*150.0f));
-            s.setVelocityX(-0.02f);
-            clouds.add(s);
-        }
-
-        dots.get(0).show();
-        currentDot = dots.get(0);
-        curDotIndex = 0;
-
-        initialiseGame();
-    }
+		if (replayer == null) events.keyReleased(key);
+	}
 }
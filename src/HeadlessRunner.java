@@ -0,0 +1,118 @@
+import game2D.*;
+
+/**
+ * HeadlessRunner drives GameWorld without a window, a frame scheduler or
+ * sound, so the simulation can be load tested on machines with no display.
+ * Each tick advances a synthetic clock by a fixed step and calls update()
+ * straight away, as fast as the machine allows. Input can be supplied as an
+ * InputScript or replayed from an InputRecorder recording, and the input
+ * can itself be recorded. With -hash, a state hash is recorded for every
+ * tick, or checked against the recording when replaying. When the run
+ * finishes, the number of ticks per second is reported along with the
+ * distribution of update times.
+ *
+ * Usage: java HeadlessRunner [-ticks n] [-step ms] [-seed n] [-script file]
+ *                            [-record file] [-replay file] [-hash]
+ */
+public class HeadlessRunner
+{
+    InputScript script = null;      // Scripted input, may be null
+    InputRecorder recorder = null;  // Records the input, may be null
+    InputReplayer replayer = null;  // Replays recorded input, may be null
+    boolean hashing = false;        // Record or check a state hash every tick
+
+    public static void main(String[] args) throws Exception
+    {
+        long ticks = 100000;
+        long step = 10;
+        Long seed = null;
+        String scriptFile = null;
+        String recordFile = null;
+        String replayFile = null;
+        HeadlessRunner runner = new HeadlessRunner();
+
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-ticks")) ticks = Long.parseLong(args[++i]);
+            else if (args[i].equals("-step")) step = Long.parseLong(args[++i]);
+            else if (args[i].equals("-seed")) seed = Long.parseLong(args[++i]);
+            else if (args[i].equals("-script")) scriptFile = args[++i];
+            else if (args[i].equals("-record")) recordFile = args[++i];
+            else if (args[i].equals("-replay")) replayFile = args[++i];
+            else if (args[i].equals("-hash")) runner.hashing = true;
+            else {
+                System.err.println("Unknown option " + args[i]);
+                System.err.println("Usage: java HeadlessRunner [-ticks n] [-step ms] [-seed n] [-script file]");
+                System.err.println("                           [-record file] [-replay file] [-hash]");
+                return;
+            }
+        }
+
+        // We never open a window, so make sure AWT does not try to find a display
+        if (System.getProperty("java.awt.headless") == null)
+            System.setProperty("java.awt.headless", "true");
+
+        GameWorld world = new GameWorld(1056, 608);
+        world.setSound(false);
+
+        if (scriptFile != null) runner.script = InputScript.load(scriptFile);
+        if (replayFile != null) {
+            runner.replayer = new InputReplayer(replayFile);
+            world.setSeed(runner.replayer.getSeed());
+        }
+        else if (seed != null) {
+            world.setSeed(seed);
+        }
+        if (recordFile != null) runner.recorder = new InputRecorder(recordFile, world.getSeed(), world);
+
+        world.init();
+        runner.run(world, ticks, step);
+
+        if (runner.recorder != null) runner.recorder.close();
+        world.shutdown();
+        if (runner.replayer != null && runner.hashing && runner.replayer.hasHashes()) {
+            long diverged = runner.replayer.getDivergence();
+            if (diverged < 0)
+                System.out.println("Replay matched the recording");
+            else
+                System.out.println("Replay diverged from the recording at tick " + diverged);
+        }
+    }
+
+    /**
+     * Run 'world' for 'ticks' updates of 'step' milliseconds each and print
+     * a summary of how fast it went.
+     *
+     * @param world The world to simulate
+     * @param ticks The number of updates to run
+     * @param step The simulated time per update in milliseconds
+     */
+    public void run(GameWorld world, long ticks, long step)
+    {
+        LatencyHistogram updateTimes = new LatencyHistogram("update");
+        InputHandler input = (recorder != null) ? recorder : world;
+
+        long start = System.nanoTime();
+        for (long i=0; i<ticks; i++) {
+            long tick = world.getTick();
+            if (recorder != null) recorder.setFrame(tick);
+            if (script != null) script.apply(tick, input);
+            if (replayer != null) replayer.apply(tick, input);
+
+            long t = System.nanoTime();
+            world.update(step);
+            updateTimes.record(System.nanoTime() - t);
+
+            if (hashing) {
+                if (recorder != null) recorder.recordHash(tick, world.stateHash());
+                if (replayer != null) replayer.checkFrame(tick, world.stateHash());
+            }
+        }
+        long wall = System.nanoTime() - start;
+
+        double seconds = wall / 1e9;
+        System.out.printf("%d ticks (%.1fs simulated) in %.3fs: %.0f ticks/s%n",
+                ticks, ticks * step / 1000.0, seconds, ticks / seconds);
+        updateTimes.print(System.out);
+        world.collisionTimes.print(System.out);
+    }
+}
@@ -1,14 +1,8 @@
 package game2D;
 
 import java.awt.Image;
-import java.awt.Toolkit;
-import java.awt.image.CropImageFilter;
-import java.awt.image.FilteredImageSource;
-import java.awt.image.ImageFilter;
 import java.util.ArrayList;
 
-import javax.swing.ImageIcon;
-
 /**
     The Animation class manages a series of images (frames) and
     the amount of time to display each frame.
@@ -123,6 +117,72 @@ public class Animation {
         }
     }
 
+    /**
+     * Gets this Animation's current image mirrored horizontally. The
+     * mirrored copy of each frame is made the first time it is asked
+     * for and then kept, so drawing a flipped sprite is a plain blit.
+     * Returns null if this animation has no images.
+     * 
+     * @return The mirrored version of the current image
+     */
+    public synchronized Image getMirroredImage() {
+        if (frames.size() == 0) return null;
+        AnimFrame f = getFrame(currFrameIndex);
+        if (f.mirrored == null) {
+            if (f.image.getWidth(null) <= 0) return f.image;
+            f.mirrored = CompatibleImages.mirror(f.image);
+        }
+        return f.mirrored;
+    }
+
+    /**
+     * Gets the atlas region for this Animation's current image, if
+     * one has been set with setAtlas().
+     * 
+     * @return The region to draw the current image from, or null
+     */
+    public synchronized AtlasRegion getRegion() {
+        if (frames.size() == 0) return null;
+        return getFrame(currFrameIndex).region;
+    }
+    
+    /**
+     * Adds every frame image to 'atlas'. Frame 'i' is added as
+     * 'name#i', so each animation should be given its own name.
+     * 
+     * @param atlas	The atlas to add the frames to
+     * @param name	The name to add the frames under
+     */
+    public void addToAtlas(TextureAtlas atlas, String name)
+    {
+    	for (int i=0; i<frames.size(); i++)
+    		atlas.add(name + "#" + i, frames.get(i).image);
+    }
+    
+    /**
+     * Draw frames from the regions of 'atlas' that were added
+     * by addToAtlas() with the same 'name'. Frames that are not in
+     * the atlas are drawn from their own image.
+     * 
+     * @param atlas	The atlas to draw from, or null to stop using an atlas
+     * @param name	The name the frames were added under
+     * @return	true if every frame was found in the atlas
+     */
+    public boolean setAtlas(TextureAtlas atlas, String name)
+    {
+    	boolean all = true;
+    	for (int i=0; i<frames.size(); i++)
+    	{
+    		AnimFrame f = frames.get(i);
+    		AtlasRegion r = (atlas == null) ? null : atlas.getRegion(name + "#" + i);
+    		if (r != null && (r.getWidth() != f.image.getWidth(null) || r.getHeight() != f.image.getHeight(null)))
+    			r = null;
+    		f.region = r;
+    		if (r == null) all = false;
+    	}
+    	return all || atlas == null;
+    }
+
     /**
      * Works out which frame to display, incorporating
      * the offset.
@@ -179,7 +239,8 @@ public class Animation {
      */
     public void loadAnimationFromSheet(String fileName, int columns, int rows, int frameDuration)
     {
-    	Image sheet = new ImageIcon(fileName).getImage();
+    	Image sheet = CompatibleImages.read(fileName);
+    	if (sheet == null) return;
     	Image[] images = getImagesFromSheet(sheet, columns, rows);
     	
     	for (int i=0; i<images.length; i++)
@@ -192,14 +253,15 @@ public class Animation {
     
     /**
      * Loads a set of images from a sprite sheet so that they can be added to an animation.
-     * Courtesy of Donald Robertson.
+     * Courtesy of Donald Robertson. This uses no animation state, so it may
+     * be called from any thread, e.g. by an AssetManager.
      * 
-     * @param sheet
-     * @param rows
-     * @param columns
-     * @return
+     * @param sheet The fully loaded sprite sheet
+     * @param rows How many rows there are in the sheet
+     * @param columns How many columns there are in the sheet
+     * @return The frames, row by row
      */
-    private Image[] getImagesFromSheet(Image sheet, int columns, int rows) {
+    public static Image[] getImagesFromSheet(Image sheet, int columns, int rows) {
 
         // basic method to achieve split of sprite sheet
         // overloading could be used to achieve more complex things 
@@ -222,17 +284,10 @@ public class Animation {
         {
             for(int j = 0; j < columns; j++) 
             {
-            	// create an image filter
-            	// top left (x) = j*width, (y) = i*height
-            	// extract rectangular region of width and height from origin x,y
-            	ImageFilter cropper = new CropImageFilter(j*width,i*height, width, height);
-            	
-                // create image source based on original sprite sheet with filter applied
-                // results in image source for cropped image being generated
-                FilteredImageSource cropped = new FilteredImageSource(sheet.getSource(), cropper);
-                
-                // create a new image using generated image source and store in appropriate array element
-                split[count] = Toolkit.getDefaultToolkit().createImage(cropped);
+            	// copy the rectangular region of width and height at
+            	// top left (x) = j*width, (y) = i*height into a new
+            	// screen compatible image and store in appropriate array element
+                split[count] = CompatibleImages.crop(sheet, j*width, i*height, width, height);
                         
                 // increment count to prevent elements being overwritten
                 count++;
@@ -299,8 +354,10 @@ public class Animation {
      */
     private class AnimFrame {
 
-        Image image;	// The image for a frame.
-        long endTime;	// The time at which this frame ends.
+        Image image;			// The image for a frame.
+        Image mirrored;			// 'image' mirrored horizontally, made when first needed
+        AtlasRegion region;		// The image's region in an atlas, or null
+        long endTime;			// The time at which this frame ends.
 
         /**
          * Create a new frame with the given image and end time.
@@ -0,0 +1,277 @@
+package game2D;
+
+import java.awt.Image;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * AssetManager reads and decodes images, sprite sheets, sounds and other
+ * assets on a small pool of background threads, so that starting a level
+ * does not stop the game loop. Each load returns a CompletableFuture that
+ * completes with the asset, or exceptionally if it could not be loaded.
+ * <p>
+ * Images, sheets and sounds are only loaded once: asking for the same file
+ * again returns a future for the same load, so the decoded asset is shared. Assets
+ * that are changed after loading, such as tile maps, should be loaded with
+ * load(), which is not cached.
+ * <p>
+ * Every load counts towards the current Progress, which beginProgress()
+ * replaces, so a loading screen can show how much of a level is ready.
+ */
+public class AssetManager {
+
+	/**
+	 * How many of the loads asked for since a call to beginProgress() are
+	 * done. It may be read from any thread.
+	 */
+	public static class Progress {
+		private final AtomicInteger requested = new AtomicInteger();
+		private final AtomicInteger completed = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+
+		/**
+		 * @return The number of loads asked for
+		 */
+		public int getRequested() { return requested.get(); }
+
+		/**
+		 * @return The number of loads that are done, whether or not they failed
+		 */
+		public int getCompleted() { return completed.get(); }
+
+		/**
+		 * @return The number of loads that failed
+		 */
+		public int getFailed() { return failed.get(); }
+
+		/**
+		 * @return The fraction of loads that are done, from 0 to 1
+		 */
+		public float getFraction()
+		{
+			int r = requested.get();
+			return (r == 0) ? 1.0f : Math.min(1.0f, completed.get() / (float)r);
+		}
+
+		/**
+		 * @return true once every load asked for is done
+		 */
+		public boolean isDone() { return completed.get() >= requested.get(); }
+	}
+
+	private final Executor executor;			// Runs the loads
+	private final ExecutorService pool;			// The same as 'executor', or null when loading inline
+
+	// Futures for the cached assets, by kind and file name
+	private final ConcurrentHashMap<String,CompletableFuture<?>> assets = new ConcurrentHashMap<String,CompletableFuture<?>>();
+
+	private volatile Progress progress = new Progress();
+
+	/**
+	 * Create a manager with one loading thread per processor, up to 4.
+	 */
+	public AssetManager()
+	{
+		this(Math.min(4, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Create a manager with 'threads' loading threads. With 0 threads,
+	 * assets are loaded on the thread that asks for them, so every future
+	 * is already complete when it is returned; this keeps a recorded run
+	 * repeatable, as levels then start on the same update as they did.
+	 *
+	 * @param threads The number of loading threads, or 0 to load inline
+	 */
+	public AssetManager(int threads)
+	{
+		if (threads <= 0)
+		{
+			pool = null;
+			executor = new Executor() {
+				public void execute(Runnable r) { r.run(); }
+			};
+			return;
+		}
+
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Asset loader " + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor = pool;
+	}
+
+	/**
+	 * @return true if assets are loaded on background threads
+	 */
+	public boolean isAsync() { return pool != null; }
+
+	/**
+	 * Start counting loads afresh, e.g. when a new level starts loading.
+	 *
+	 * @return The new progress
+	 */
+	public Progress beginProgress()
+	{
+		progress = new Progress();
+		return progress;
+	}
+
+	/**
+	 * @return The progress of the loads asked for since beginProgress()
+	 */
+	public Progress getProgress() { return progress; }
+
+	/**
+	 * Load an image and convert it to a compatible image.
+	 *
+	 * @param file The file path of the image
+	 * @return The future image
+	 */
+	public CompletableFuture<Image> image(final String file)
+	{
+		return cached("image:" + file, new Supplier<Image>() {
+			public Image get() {
+				Image img = CompatibleImages.load(file);
+				if (img == null) throw new CompletionException(new IOException("could not load image '" + file + "'"));
+				return img;
+			}
+		});
+	}
+
+	/**
+	 * Load a sprite sheet and split it into compatible frame images.
+	 *
+	 * @param file The file path of the sheet
+	 * @param columns How many columns there are in the sheet
+	 * @param rows How many rows there are in the sheet
+	 * @return The future frames, row by row, as from Animation.getImagesFromSheet()
+	 */
+	public CompletableFuture<Image[]> sheet(final String file, final int columns, final int rows)
+	{
+		return cached("sheet:" + columns + "x" + rows + ":" + file, new Supplier<Image[]>() {
+			public Image[] get() {
+				Image sheet = CompatibleImages.read(file);
+				if (sheet == null) throw new CompletionException(new IOException("could not load sheet '" + file + "'"));
+				return Animation.getImagesFromSheet(sheet, columns, rows);
+			}
+		});
+	}
+
+	/**
+	 * Load and decode a sound.
+	 *
+	 * @param file The file path of the sound
+	 * @return The future samples, which can be played with a new Sound
+	 */
+	public CompletableFuture<Sound.Samples> sound(final String file)
+	{
+		return cached("sound:" + file, new Supplier<Sound.Samples>() {
+			public Sound.Samples get() {
+				try
+				{
+					return Sound.decode(file);
+				}
+				catch (IOException e)
+				{
+					throw new CompletionException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run any other loading task on the loading threads, e.g. to read a tile
+	 * map. The result is not cached. An unchecked exception thrown by 'task'
+	 * completes the future exceptionally.
+	 *
+	 * @param task The task to run
+	 * @return The future result of 'task'
+	 */
+	public <T> CompletableFuture<T> load(Supplier<T> task)
+	{
+		return track(CompletableFuture.supplyAsync(task, executor));
+	}
+
+	/**
+	 * Forget every cached asset, so they are loaded again when next asked
+	 * for. Loads in progress still complete.
+	 */
+	public void clear()
+	{
+		assets.clear();
+	}
+
+	/**
+	 * Stop the loading threads once the loads asked for are done.
+	 */
+	public void shutdown()
+	{
+		if (pool != null) pool.shutdown();
+	}
+
+	/**
+	 * Get the cached future for 'key', starting 'task' to make it if there
+	 * is none. A failed load is not kept, so it is tried again next time.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> CompletableFuture<T> cached(final String key, final Supplier<T> task)
+	{
+		CompletableFuture<?> f = assets.get(key);
+		if (f == null)
+		{
+			final CompletableFuture<T> created = new CompletableFuture<T>();
+			f = assets.putIfAbsent(key, created);
+			if (f == null)
+			{
+				f = created;
+				created.whenComplete(new BiConsumer<T,Throwable>() {
+					public void accept(T result, Throwable e) {
+						if (e != null) assets.remove(key, created);
+					}
+				});
+				// Start the load only once 'created' is in the cache, so an
+				// inline load that fails is removed again
+				CompletableFuture.supplyAsync(task, executor).whenComplete(new BiConsumer<T,Throwable>() {
+					public void accept(T result, Throwable e) {
+						if (e != null)
+							created.completeExceptionally((e instanceof CompletionException) ? e.getCause() : e);
+						else
+							created.complete(result);
+					}
+				});
+			}
+		}
+		// Hand out a copy, so a caller completing it cannot change the cache
+		return track(((CompletableFuture<T>)f).copy());
+	}
+
+	/**
+	 * Count 'f' towards the current progress.
+	 */
+	private <T> CompletableFuture<T> track(CompletableFuture<T> f)
+	{
+		final Progress p = progress;
+		p.requested.incrementAndGet();
+		f.whenComplete(new BiConsumer<T,Throwable>() {
+			public void accept(T result, Throwable e) {
+				if (e != null) p.failed.incrementAndGet();
+				p.completed.incrementAndGet();
+			}
+		});
+		return f;
+	}
+}
@@ -0,0 +1,83 @@
+package game2D;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * An AtlasRegion is a named rectangle of one page of a TextureAtlas. Drawing
+ * a region copies just that rectangle of the page, so every image packed into
+ * the same page is drawn from one source image.
+ */
+public class AtlasRegion {
+
+	private final String name;
+	private final BufferedImage page;	// The atlas page holding the pixels
+	private final int pageIndex;		// Index of 'page' in the atlas
+	private final int x, y;				// Top left of the region in the page
+	private final int width, height;
+	private final long checksum;		// Checksum of the pixels that were packed
+
+	AtlasRegion(String name, BufferedImage page, int pageIndex, int x, int y, int width, int height, long checksum)
+	{
+		this.name = name;
+		this.page = page;
+		this.pageIndex = pageIndex;
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+		this.checksum = checksum;
+	}
+
+	/**
+	 * @return The name the region was added to the atlas with
+	 */
+	public String getName() { return name; }
+
+	/**
+	 * @return The atlas page the region is in
+	 */
+	public BufferedImage getPage() { return page; }
+
+	/**
+	 * @return The index of the page the region is in
+	 */
+	public int getPageIndex() { return pageIndex; }
+
+	/**
+	 * @return The x coordinate of the left of the region in its page
+	 */
+	public int getX() { return x; }
+
+	/**
+	 * @return The y coordinate of the top of the region in its page
+	 */
+	public int getY() { return y; }
+
+	/**
+	 * @return The width of the region in pixels
+	 */
+	public int getWidth() { return width; }
+
+	/**
+	 * @return The height of the region in pixels
+	 */
+	public int getHeight() { return height; }
+
+	/**
+	 * @return The checksum of the pixels the region was packed from
+	 */
+	long getChecksum() { return checksum; }
+
+	/**
+	 * Draw the region with its top left at 'dx,dy'.
+	 *
+	 * @param g The graphics object to draw to
+	 * @param dx The x position in pixels
+	 * @param dy The y position in pixels
+	 */
+	public void draw(Graphics2D g, int dx, int dy)
+	{
+		g.drawImage(page, dx, dy, dx + width, dy + height, x, y, x + width, y + height, null);
+	}
+}
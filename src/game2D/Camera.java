@@ -0,0 +1,199 @@
+package game2D;
+
+import java.awt.Rectangle;
+
+/**
+ * A Camera decides which part of the world is shown in a view of a fixed
+ * size. It follows a sprite using a dead zone: a box in the middle of the
+ * view that the sprite can move around in without the camera moving. Once
+ * the sprite leaves the box, the camera moves just far enough to bring it
+ * back to the edge. The camera never shows more than a set border beyond
+ * the edges of the world; if the world is smaller than the view, it is
+ * shown at the top left, inset by the border.
+ * <p>
+ * Like a Sprite, the camera keeps its position before the last call to
+ * follow(), so it can be drawn between its previous and current position
+ * with setInterpolation().
+ */
+public class Camera {
+
+	private int viewWidth, viewHeight;		// Size of the view in pixels
+	private int worldWidth, worldHeight;	// Size of the world in pixels
+	private int border;						// Space shown beyond the world edges
+	private float deadWidth, deadHeight;	// Size of the dead zone as a fraction of the view
+
+	private float x, y;						// World position of the top left of the view
+	private float prevX, prevY;				// Position before the last follow()
+	private float alpha = 1.0f;				// How far between prevX,Y and x,y to draw
+
+	/**
+	 * Create a camera at the top left of an empty world.
+	 *
+	 * @param viewWidth The width of the view in pixels
+	 * @param viewHeight The height of the view in pixels
+	 */
+	public Camera(int viewWidth, int viewHeight)
+	{
+		this.viewWidth = viewWidth;
+		this.viewHeight = viewHeight;
+		setDeadZone(0.3f, 0.4f);
+	}
+
+	/**
+	 * Set the size of the view, e.g. when the window is resized.
+	 *
+	 * @param w The width of the view in pixels
+	 * @param h The height of the view in pixels
+	 */
+	public void setViewSize(int w, int h)
+	{
+		viewWidth = w;
+		viewHeight = h;
+	}
+
+	/**
+	 * Set the size of the world the camera is kept within, usually the
+	 * pixel size of the tile map.
+	 *
+	 * @param w The width of the world in pixels
+	 * @param h The height of the world in pixels
+	 */
+	public void setWorldSize(int w, int h)
+	{
+		worldWidth = w;
+		worldHeight = h;
+	}
+
+	/**
+	 * @param pixels How far beyond the edges of the world the view may show
+	 */
+	public void setBorder(int pixels) { border = pixels; }
+
+	/**
+	 * Set the size of the dead zone, which is centred in the view.
+	 *
+	 * @param w The width of the dead zone as a fraction (0 to 1) of the view width
+	 * @param h The height of the dead zone as a fraction (0 to 1) of the view height
+	 */
+	public void setDeadZone(float w, float h)
+	{
+		deadWidth = Math.max(0, Math.min(1, w));
+		deadHeight = Math.max(0, Math.min(1, h));
+	}
+
+	/**
+	 * Move the camera so that 's' is inside the dead zone, remembering
+	 * where it was for interpolation. Call this once per update, after the
+	 * sprite has moved.
+	 *
+	 * @param s The sprite to follow
+	 */
+	public void follow(Sprite s)
+	{
+		prevX = x;
+		prevY = y;
+
+		float dw = viewWidth * deadWidth;
+		float dh = viewHeight * deadHeight;
+		float left = x + (viewWidth - dw) / 2;
+		float top = y + (viewHeight - dh) / 2;
+
+		if (s.getX() < left) x -= left - s.getX();
+		else if (s.getX() + s.getWidth() > left + dw) x += s.getX() + s.getWidth() - (left + dw);
+		if (s.getY() < top) y -= top - s.getY();
+		else if (s.getY() + s.getHeight() > top + dh) y += s.getY() + s.getHeight() - (top + dh);
+
+		clamp();
+	}
+
+	/**
+	 * Centre the camera on 's' straight away, without interpolating from
+	 * where it was, e.g. when a level starts.
+	 *
+	 * @param s The sprite to centre on
+	 */
+	public void centreOn(Sprite s)
+	{
+		x = s.getX() + s.getWidth() / 2 - viewWidth / 2;
+		y = s.getY() + s.getHeight() / 2 - viewHeight / 2;
+		clamp();
+		prevX = x;
+		prevY = y;
+	}
+
+	/**
+	 * Keep the view within the world plus its border.
+	 */
+	private void clamp()
+	{
+		x = Math.max(-border, Math.min(x, worldWidth + border - viewWidth));
+		y = Math.max(-border, Math.min(y, worldHeight + border - viewHeight));
+	}
+
+	/**
+	 * Make this camera a copy of 'c', e.g. to hand it to a render thread.
+	 *
+	 * @param c The camera to copy
+	 */
+	public void set(Camera c)
+	{
+		viewWidth = c.viewWidth;
+		viewHeight = c.viewHeight;
+		worldWidth = c.worldWidth;
+		worldHeight = c.worldHeight;
+		border = c.border;
+		deadWidth = c.deadWidth;
+		deadHeight = c.deadHeight;
+		x = c.x;
+		y = c.y;
+		prevX = c.prevX;
+		prevY = c.prevY;
+		alpha = c.alpha;
+	}
+
+	/**
+	 * Set how far between its previous and current position the camera
+	 * should be drawn, where 0 is the position before the last follow() and
+	 * 1 (the default) is the current position.
+	 */
+	public void setInterpolation(float a)
+	{
+		alpha = a;
+	}
+
+	/**
+	 * @return The x offset to add to world positions to get screen positions
+	 */
+	public int getXOffset()
+	{
+		return -Math.round(prevX + (x - prevX) * alpha);
+	}
+
+	/**
+	 * @return The y offset to add to world positions to get screen positions
+	 */
+	public int getYOffset()
+	{
+		return -Math.round(prevY + (y - prevY) * alpha);
+	}
+
+	/**
+	 * Set 'r' to the part of the world the view shows.
+	 *
+	 * @param r The rectangle to set, in world pixels
+	 */
+	public void getView(Rectangle r)
+	{
+		r.setBounds(-getXOffset(), -getYOffset(), viewWidth, viewHeight);
+	}
+
+	/**
+	 * Convert a screen x position, such as a mouse click, to a world position.
+	 */
+	public int toWorldX(int sx) { return sx - getXOffset(); }
+
+	/**
+	 * Convert a screen y position, such as a mouse click, to a world position.
+	 */
+	public int toWorldY(int sy) { return sy - getYOffset(); }
+}
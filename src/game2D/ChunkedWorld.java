@@ -0,0 +1,645 @@
+package game2D;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChunkedWorld streams the tiles of a map from a chunk file, so a map can
+ * be far larger than memory. The file holds the map split into square
+ * chunks of tiles, and only the chunks in use are kept in memory, up to a
+ * budget. When a chunk is needed and the budget is full, the least recently
+ * used chunk is dropped, and written back to the file first if any of its
+ * tiles have changed. Each chunk is stamped when it is used, rather than
+ * being moved in a LinkedHashMap, because a run of tiles across a row
+ * switches between chunks far too often for a map lookup on every switch.
+ * <p>
+ * prefetch() asks for the chunks in an area to be read on a background
+ * thread, so they are ready by the time they are shown. A tile in any
+ * other chunk can still be read or set, but its chunk is then read while
+ * the caller waits. Apart from that thread, which only reads and writes the
+ * file, a ChunkedWorld must be used from one thread. Changes are only safe
+ * in the file once flush() or close() has been called. That thread does not
+ * keep the program running, so close the world, or the TileMap streaming
+ * it, before exiting.
+ * <p>
+ * A chunk file is made from a text map with create(), which reads the map
+ * a band of chunks at a time, so the text map need not fit in memory
+ * either. The file is little endian and laid out as follows:
+ *
+ * <pre>
+ *  0  int   magic ('TCHK')
+ *  4  int   version
+ *  8  int   map width, map height, tile width, tile height (in that order)
+ * 24  int   number of tile types
+ * 28  int   chunk size in tiles, a power of two
+ * 32  long  offset of the first chunk
+ * 40        tile types, as in a CompiledMap
+ *           chunks: one char per tile in row order, the chunks themselves
+ *           in row order. Tiles past the edges of the map are blank
+ * </pre>
+ *
+ * A text map can be converted with
+ * <code>java game2D.ChunkedWorld out.chunks maps/map.txt [chunkSize]</code>
+ */
+public class ChunkedWorld {
+
+	public static final int MAGIC = 0x5443484b;		// 'TCHK'
+	public static final int VERSION = 1;
+
+	// Chunk size used when none is given, in tiles
+	public static final int DEFAULT_CHUNK_TILES = 64;
+
+	private static final int HEADER_SIZE = 40;
+
+	/**
+	 * A chunk held in memory.
+	 */
+	private static class Chunk {
+		final int index;		// Position in the file, cy * chunksX + cx
+		final char[] tiles;		// The tiles in row order
+		boolean dirty;			// true if a tile has changed since it was read
+		long used;				// Value of 'clock' when the chunk was last used
+
+		Chunk(int index, char[] tiles)
+		{
+			this.index = index;
+			this.tiles = tiles;
+		}
+	}
+
+	private final File file;
+	private final FileChannel channel;
+	private final int mapWidth, mapHeight;		// Map size in tiles
+	private final int tileWidth, tileHeight;	// Tile size in pixels
+	private final TileType[] types;
+	private final int shift, mask;				// Chunk size as a power of two, and that size - 1
+	private final int chunksX, chunksY;			// Map size in chunks
+	private final int chunkLength;				// Tiles in a chunk
+	private final long dataOffset;				// Position of the first chunk in the file
+	private int budget;							// Most chunks to keep in memory
+
+	// Chunks in memory, by index
+	private final HashMap<Integer,Chunk> resident = new HashMap<Integer,Chunk>();
+	private long clock;							// Counts chunk uses
+
+	// Recently used chunks, each in slot index & RECENT_MASK, so that most
+	// tile lookups skip 'resident'. A slot is cleared when its chunk is dropped
+	private static final int RECENT_MASK = 63;
+	private final Chunk[] recent = new Chunk[RECENT_MASK + 1];
+
+	// The chunks asked for by the last prefetch(), so it can return at once
+	// while the view stays in them. Reset whenever a chunk is dropped
+	private int px0, py0, px1 = -1, py1 = -1;
+
+	// Chunks being read by prefetch(), not yet resident
+	private final HashMap<Integer,Future<Chunk>> pending = new HashMap<Integer,Future<Chunk>>();
+
+	// Tiles of chunks waiting to be written. A chunk read while its tiles
+	// are in here is copied from them, since the file is not yet up to date
+	private final ConcurrentHashMap<Integer,char[]> writing = new ConcurrentHashMap<Integer,char[]>();
+
+	// Reads and writes the file in the order they were asked for
+	private final ExecutorService io = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Chunk loader");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private int misses;		// Chunks that were needed before prefetch() had read them
+	private int writes;		// Chunks written back
+
+	private ChunkedWorld(File file, FileChannel channel, ByteBuffer head, TileType[] types, int budget)
+	{
+		this.file = file;
+		this.channel = channel;
+		this.types = types;
+		mapWidth = head.getInt(8);
+		mapHeight = head.getInt(12);
+		tileWidth = head.getInt(16);
+		tileHeight = head.getInt(20);
+		int size = head.getInt(28);
+		shift = Integer.numberOfTrailingZeros(size);
+		mask = size - 1;
+		chunksX = (mapWidth + mask) >> shift;
+		chunksY = (mapHeight + mask) >> shift;
+		chunkLength = size * size;
+		dataOffset = head.getLong(32);
+		setBudget(budget);
+	}
+
+	/**
+	 * Open a chunk file made by create().
+	 *
+	 * @param file The chunk file
+	 * @param budget The most chunks to keep in memory. This should cover
+	 * the chunks prefetch() is asked for, or they will be read again and again
+	 * @return The world, which should be closed when it is no longer needed
+	 * @throws IOException if the file could not be read or is not a chunk file
+	 */
+	public static ChunkedWorld open(File file, int budget) throws IOException
+	{
+		FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try
+		{
+			ByteBuffer head = readFully(fc, 0, HEADER_SIZE);
+			if (head.getInt(0) != MAGIC || head.getInt(4) != VERSION)
+				throw new IOException("not a chunk file of version " + VERSION);
+
+			int w = head.getInt(8), h = head.getInt(12);
+			int size = head.getInt(28);
+			long offset = head.getLong(32);
+			if (w <= 0 || h <= 0 || size <= 0 || (size & (size - 1)) != 0 || offset < HEADER_SIZE)
+				throw new IOException("bad dimensions");
+			long chunks = (long)((w + size - 1) / size) * ((h + size - 1) / size);
+			if (fc.size() < offset + chunks * size * size * 2)
+				throw new IOException("file is too short");
+
+			ByteBuffer table = readFully(fc, HEADER_SIZE, (int)(offset - HEADER_SIZE));
+			TileType[] types = CompiledMap.getTypes(table, head.getInt(24));
+			return new ChunkedWorld(file, fc, head, types, budget);
+		}
+		catch (IOException e)
+		{
+			fc.close();
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			fc.close();
+			throw new IOException("bad tile types", e);
+		}
+	}
+
+	/**
+	 * Convert a text map to a chunk file. Only one band of chunks is held
+	 * in memory at a time.
+	 *
+	 * @param folder The folder the text map and its images are located in
+	 * @param mapfile The name of the text map in 'folder'
+	 * @param out The chunk file to write; its folder is created if needed
+	 * @param chunkTiles The width and height of a chunk in tiles, a power of two
+	 * @return true if the chunk file was written, false otherwise
+	 */
+	public static boolean create(String folder, String mapfile, File out, int chunkTiles)
+	{
+		if (chunkTiles <= 0 || (chunkTiles & (chunkTiles - 1)) != 0)
+			throw new IllegalArgumentException("Chunk size must be a power of two: " + chunkTiles);
+
+		String path = folder + "/" + mapfile;
+		File dir = out.getAbsoluteFile().getParentFile();
+		File tmp = new File(dir, out.getName() + ".tmp");
+		BufferedReader in = null;
+		FileChannel fc = null;
+		try
+		{
+			in = new BufferedReader(new FileReader(path));
+			String[] vals = in.readLine().split(" ");
+			if (vals.length != 4)
+				throw new IOException("incorrect number of parameters in the header");
+			int w = Integer.parseInt(vals[0]);
+			int h = Integer.parseInt(vals[1]);
+			if (w <= 0 || h <= 0)
+				throw new IOException("incorrect map dimensions");
+			TileType[] types = TileMap.readTypes(in, folder);
+			if (types == null)
+				throw new IOException("no #map line");
+
+			int cw = (w + chunkTiles - 1) / chunkTiles;
+			int ch = (h + chunkTiles - 1) / chunkTiles;
+			long offset = (HEADER_SIZE + CompiledMap.typeTableBytes(types) + 7) & ~7L;
+
+			ByteBuffer head = ByteBuffer.allocate((int)offset).order(ByteOrder.LITTLE_ENDIAN);
+			head.putInt(MAGIC).putInt(VERSION);
+			head.putInt(w).putInt(h).putInt(Integer.parseInt(vals[2])).putInt(Integer.parseInt(vals[3]));
+			head.putInt(CompiledMap.countTypes(types)).putInt(chunkTiles);
+			head.putLong(offset);
+			CompiledMap.putTypes(head, types);
+			head.rewind();
+
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("could not create folder");
+			fc = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			while (head.hasRemaining()) fc.write(head);
+
+			// Read one band of chunks at a time, then write its chunks out
+			int stride = cw * chunkTiles;
+			char[] band = new char[chunkTiles * stride];
+			ByteBuffer chunk = ByteBuffer.allocate(chunkTiles * chunkTiles * 2).order(ByteOrder.LITTLE_ENDIAN);
+			CharBuffer chars = chunk.asCharBuffer();
+			int row = 0;
+			for (int by=0; by<ch; by++)
+			{
+				Arrays.fill(band, '.');
+				int r = 0;
+				while (r < chunkTiles && row < h)
+				{
+					String line = in.readLine();
+					if (line == null) throw new IOException("incorrect rows in map");
+					if (line.trim().startsWith("//")) continue;
+					if (line.length() != w)
+					{
+						System.err.println("Incorrect line length in map");
+						System.err.println(row + " : " + line);
+						continue;
+					}
+					line.getChars(0, w, band, r * stride);
+					r++;
+					row++;
+				}
+
+				for (int bx=0; bx<cw; bx++)
+				{
+					chars.clear();
+					for (int y=0; y<chunkTiles; y++)
+						chars.put(band, y * stride + bx * chunkTiles, chunkTiles);
+					chunk.clear();
+					while (chunk.hasRemaining()) fc.write(chunk);
+				}
+			}
+
+			fc.close();
+			fc = null;
+			Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (Exception e)
+		{
+			System.err.println("Failed to convert tile map '" + path + "':" + e);
+			closeQuietly(fc);
+			tmp.delete();
+			return false;
+		}
+		finally
+		{
+			closeQuietly(in);
+		}
+		return true;
+	}
+
+	/**
+	 * @return The map width in tiles
+	 */
+	public int getMapWidth() { return mapWidth; }
+
+	/**
+	 * @return The map height in tiles
+	 */
+	public int getMapHeight() { return mapHeight; }
+
+	/**
+	 * @return The width of a tile in pixels
+	 */
+	public int getTileWidth() { return tileWidth; }
+
+	/**
+	 * @return The height of a tile in pixels
+	 */
+	public int getTileHeight() { return tileHeight; }
+
+	/**
+	 * @return The width and height of a chunk in tiles
+	 */
+	public int getChunkTiles() { return mask + 1; }
+
+	/**
+	 * @return The tile type table, indexed by character. It must not be changed
+	 */
+	TileType[] getTypes() { return types; }
+
+	/**
+	 * Set the most chunks to keep in memory, dropping the least recently
+	 * used ones if there are more than that already.
+	 *
+	 * @param chunks The budget, at least 1
+	 */
+	public void setBudget(int chunks)
+	{
+		budget = Math.max(1, chunks);
+		trim();
+	}
+
+	/**
+	 * @return The most chunks kept in memory
+	 */
+	public int getBudget() { return budget; }
+
+	/**
+	 * @return The number of chunks in memory
+	 */
+	public int getResident() { return resident.size(); }
+
+	/**
+	 * @return The number of chunks that were needed before prefetch() had
+	 * read them, so the caller had to wait
+	 */
+	public int getMisses() { return misses; }
+
+	/**
+	 * @return The number of changed chunks written back to the file
+	 */
+	public int getWrites() { return writes; }
+
+	/**
+	 * Get the tile character at 'x,y', which must be in the map.
+	 *
+	 * @param x The x tile coordinate (in tiles, not pixels)
+	 * @param y The y tile coordinate (in tiles, not pixels)
+	 * @return The tile character
+	 */
+	public char get(int x, int y)
+	{
+		int index = (y >> shift) * chunksX + (x >> shift);
+		Chunk c = recent[index & RECENT_MASK];
+		if (c == null || c.index != index) c = chunk(index);
+		c.used = ++clock;
+		return c.tiles[((y & mask) << shift) + (x & mask)];
+	}
+
+	/**
+	 * Set the tile character at 'x,y', which must be in the map.
+	 *
+	 * @param x The x tile coordinate (in tiles, not pixels)
+	 * @param y The y tile coordinate (in tiles, not pixels)
+	 * @param ch The character to set the tile to
+	 */
+	public void set(int x, int y, char ch)
+	{
+		int index = (y >> shift) * chunksX + (x >> shift);
+		Chunk c = recent[index & RECENT_MASK];
+		if (c == null || c.index != index) c = chunk(index);
+		c.used = ++clock;
+		c.tiles[((y & mask) << shift) + (x & mask)] = ch;
+		c.dirty = true;
+	}
+
+	/**
+	 * Start reading every chunk that overlaps the tiles from 'x0,y0' to
+	 * 'x1,y1' (inclusive) and is not already in memory. The area may extend
+	 * past the edges of the map. Chunks read since the last call are made
+	 * resident first.
+	 */
+	public void prefetch(int x0, int y0, int x1, int y1)
+	{
+		int cx0 = Math.max(0, x0) >> shift, cy0 = Math.max(0, y0) >> shift;
+		int cx1 = Math.min(mapWidth - 1, x1) >> shift, cy1 = Math.min(mapHeight - 1, y1) >> shift;
+		if (pending.isEmpty() && cx0 == px0 && cy0 == py0 && cx1 == px1 && cy1 == py1) return;
+
+		drain();
+		px0 = cx0;
+		py0 = cy0;
+		px1 = cx1;
+		py1 = cy1;
+		for (int cy=cy0; cy<=cy1; cy++)
+		{
+			for (int cx=cx0; cx<=cx1; cx++)
+			{
+				final int index = cy * chunksX + cx;
+				if (resident.containsKey(index) || pending.containsKey(index)) continue;
+				pending.put(index, io.submit(new Callable<Chunk>() {
+					public Chunk call() { return new Chunk(index, read(index)); }
+				}));
+			}
+		}
+	}
+
+	/**
+	 * Write every changed chunk back to the file, waiting until it has
+	 * been written.
+	 */
+	public void flush()
+	{
+		for (Chunk c : resident.values())
+		{
+			if (!c.dirty) continue;
+			// Write a copy, since the chunk may change again before it is written
+			writeBack(c.index, c.tiles.clone());
+			c.dirty = false;
+		}
+
+		try
+		{
+			io.submit(new Runnable() { public void run() { } }).get();
+		}
+		catch (Exception e)
+		{
+			System.err.println("Failed to flush '" + file + "':" + e);
+		}
+	}
+
+	/**
+	 * Write back any changed chunks and close the file. The world cannot
+	 * be used afterwards.
+	 */
+	public void close()
+	{
+		flush();
+		io.shutdown();
+		try
+		{
+			io.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		closeQuietly(channel);
+		resident.clear();
+		pending.clear();
+		Arrays.fill(recent, null);
+	}
+
+	/**
+	 * Get chunk 'index', reading it if it is not in memory and dropping
+	 * the least recently used chunk if that takes the budget over.
+	 */
+	private Chunk chunk(int index)
+	{
+		Chunk c = resident.get(index);
+		if (c == null)
+		{
+			Future<Chunk> f = pending.remove(index);
+			if (f == null || !f.isDone()) misses++;
+			if (f != null)
+			{
+				try
+				{
+					c = f.get();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				catch (Exception e)
+				{
+					System.err.println("Failed to read chunk " + index + " of '" + file + "':" + e);
+				}
+			}
+			if (c == null) c = new Chunk(index, read(index));
+			c.used = ++clock;
+			resident.put(index, c);
+			trim();
+		}
+		recent[index & RECENT_MASK] = c;
+		return c;
+	}
+
+	/**
+	 * Make the chunks prefetch() has finished reading resident.
+	 */
+	private void drain()
+	{
+		Iterator<Map.Entry<Integer,Future<Chunk>>> it = pending.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry<Integer,Future<Chunk>> e = it.next();
+			if (!e.getValue().isDone()) continue;
+			it.remove();
+			try
+			{
+				Chunk c = e.getValue().get();
+				c.used = clock;
+				resident.put(e.getKey(), c);
+			}
+			catch (Exception ex)
+			{
+				System.err.println("Failed to read chunk " + e.getKey() + " of '" + file + "':" + ex);
+			}
+		}
+		trim();
+	}
+
+	/**
+	 * Drop the least recently used chunks until the budget is met.
+	 */
+	private void trim()
+	{
+		while (resident.size() > budget)
+		{
+			Chunk oldest = null;
+			for (Chunk c : resident.values())
+				if (oldest == null || c.used < oldest.used) oldest = c;
+			resident.remove(oldest.index);
+			if (recent[oldest.index & RECENT_MASK] == oldest) recent[oldest.index & RECENT_MASK] = null;
+			if (oldest.dirty) writeBack(oldest.index, oldest.tiles);
+			px1 = py1 = -1;
+		}
+	}
+
+	/**
+	 * Ask for 'tiles' to be written to chunk 'index'. 'tiles' must not
+	 * change afterwards.
+	 */
+	private void writeBack(final int index, final char[] tiles)
+	{
+		writing.put(index, tiles);
+		writes++;
+		io.execute(new Runnable() {
+			public void run() {
+				ByteBuffer buf = ByteBuffer.allocate(chunkLength * 2).order(ByteOrder.LITTLE_ENDIAN);
+				buf.asCharBuffer().put(tiles);
+				long pos = dataOffset + (long)index * chunkLength * 2;
+				try
+				{
+					while (buf.hasRemaining()) channel.write(buf, pos + buf.position());
+				}
+				catch (IOException e)
+				{
+					System.err.println("Failed to write chunk " + index + " of '" + file + "':" + e);
+				}
+				writing.remove(index, tiles);
+			}
+		});
+	}
+
+	/**
+	 * Read the tiles of chunk 'index'. Called on the caller's thread or the
+	 * loader thread. If the chunk cannot be read it is returned blank.
+	 */
+	private char[] read(int index)
+	{
+		char[] queued = writing.get(index);
+		if (queued != null) return queued.clone();
+
+		char[] tiles = new char[chunkLength];
+		try
+		{
+			readFully(channel, dataOffset + (long)index * chunkLength * 2, chunkLength * 2).asCharBuffer().get(tiles);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Failed to read chunk " + index + " of '" + file + "':" + e);
+			Arrays.fill(tiles, '.');
+		}
+		return tiles;
+	}
+
+	/**
+	 * Read 'length' bytes of 'fc' from 'pos' into a new little endian buffer.
+	 */
+	private static ByteBuffer readFully(FileChannel fc, long pos, int length) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining())
+			if (fc.read(buf, pos + buf.position()) < 0) throw new EOFException();
+		buf.flip();
+		return buf;
+	}
+
+	private static void closeQuietly(Closeable c)
+	{
+		if (c == null) return;
+		try
+		{
+			c.close();
+		}
+		catch (IOException e)
+		{
+			// Nothing more can be done
+		}
+	}
+
+	/**
+	 * Convert a text map to a chunk file.
+	 *
+	 * @param args The chunk file to write, the text map and optionally the
+	 * chunk size in tiles
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: java game2D.ChunkedWorld out.chunks map.txt [chunkSize]");
+			return;
+		}
+		File source = new File(args[1]);
+		String folder = (source.getParent() != null) ? source.getParent() : ".";
+		int size = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_CHUNK_TILES;
+		if (create(folder, source.getName(), new File(args[0]), size))
+			System.out.println(source + " -> " + args[0]);
+	}
+}
@@ -0,0 +1,207 @@
+package game2D;
+
+import java.awt.AWTError;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * CompatibleImages converts loaded images into BufferedImages that are in
+ * the pixel format of the screen, so Java2D can keep them in video memory
+ * and draw them without converting the pixels on every drawImage(). Each
+ * image is given the narrowest transparency mode its pixels need: OPAQUE,
+ * BITMASK (fully on or off, as with most tiles and sprites) or TRANSLUCENT.
+ * <p>
+ * When there is no display (e.g. a headless run), images are converted to
+ * plain INT_RGB or INT_ARGB_PRE BufferedImages instead.
+ */
+public class CompatibleImages {
+
+	private static GraphicsConfiguration config;	// Configuration to create images for
+	private static boolean lookedUp = false;		// True once config has been looked up
+
+	/**
+	 * Set the graphics configuration that converted images should match,
+	 * e.g. that of the game window. By default the configuration of the
+	 * default screen is used.
+	 *
+	 * @param gc The configuration to use, or null to create plain BufferedImages
+	 */
+	public static synchronized void setConfiguration(GraphicsConfiguration gc)
+	{
+		config = gc;
+		lookedUp = true;
+	}
+
+	/**
+	 * @return The configuration images are converted for, or null if there is no display
+	 */
+	public static synchronized GraphicsConfiguration getConfiguration()
+	{
+		if (!lookedUp)
+		{
+			lookedUp = true;
+			try
+			{
+				if (!GraphicsEnvironment.isHeadless())
+					config = GraphicsEnvironment.getLocalGraphicsEnvironment()
+							.getDefaultScreenDevice().getDefaultConfiguration();
+			}
+			catch (HeadlessException | AWTError e)
+			{
+				config = null;
+			}
+		}
+		return config;
+	}
+
+	/**
+	 * Load the image in 'fileName' and convert it to a compatible image.
+	 * This may be called from any thread, e.g. by an AssetManager.
+	 *
+	 * @param fileName The file path to the image file that should be loaded
+	 * @return The converted image, or null if it failed to load
+	 */
+	public static Image load(String fileName)
+	{
+		return toCompatible(read(fileName));
+	}
+
+	/**
+	 * Decode the image in 'fileName' as it is, without converting it, e.g.
+	 * to split a sprite sheet into frames. This may be called from any thread.
+	 *
+	 * @param fileName The file path to the image file that should be loaded
+	 * @return The decoded image, or null if it failed to load
+	 */
+	public static BufferedImage read(String fileName)
+	{
+		try
+		{
+			return ImageIO.read(new File(fileName));
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Convert 'img' to a compatible image. 'img' must already be fully loaded,
+	 * as it is when it comes from read().
+	 *
+	 * @param img The image to convert
+	 * @return The converted image, or 'img' if it has no size (e.g. failed to load)
+	 */
+	public static Image toCompatible(Image img)
+	{
+		if (img == null) return null;
+		int w = img.getWidth(null);
+		int h = img.getHeight(null);
+		if (w <= 0 || h <= 0) return img;
+		return crop(img, 0, 0, w, h);
+	}
+
+	/**
+	 * Copy the region 'x,y,w,h' of 'src' into a new compatible image, e.g.
+	 * to split a sprite sheet into frames.
+	 *
+	 * @param src The image to copy from, which must already be fully loaded
+	 * @param x The left of the region in pixels
+	 * @param y The top of the region in pixels
+	 * @param w The width of the region in pixels
+	 * @param h The height of the region in pixels
+	 * @return A new image holding the region
+	 */
+	public static BufferedImage crop(Image src, int x, int y, int w, int h)
+	{
+		// Get the pixels in a known format so the transparency can be checked
+		BufferedImage argb = toARGB(src, x, y, w, h);
+		int transparency = transparencyOf(argb.getRGB(0, 0, w, h, null, 0, w));
+		BufferedImage out = createImage(w, h, transparency);
+
+		Graphics2D g = out.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.drawImage(argb, 0, 0, null);
+		g.dispose();
+		return out;
+	}
+
+	/**
+	 * Create a compatible copy of 'src' mirrored horizontally.
+	 *
+	 * @param src The image to mirror, which must already be fully loaded
+	 * @return The mirrored image
+	 */
+	public static BufferedImage mirror(Image src)
+	{
+		int w = src.getWidth(null);
+		int h = src.getHeight(null);
+		int transparency = Transparency.TRANSLUCENT;
+		if (src instanceof BufferedImage)
+			transparency = ((BufferedImage)src).getTransparency();
+
+		BufferedImage out = createImage(w, h, transparency);
+		Graphics2D g = out.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.drawImage(src, w, 0, 0, h, 0, 0, w, h, null);
+		g.dispose();
+		return out;
+	}
+
+	/**
+	 * Copy the region 'x,y,w,h' of 'src' into a new INT_ARGB image.
+	 */
+	static BufferedImage toARGB(Image src, int x, int y, int w, int h)
+	{
+		BufferedImage argb = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = argb.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.drawImage(src, -x, -y, null);
+		g.dispose();
+		return argb;
+	}
+
+	/**
+	 * Create an empty compatible image.
+	 *
+	 * @param w The width in pixels
+	 * @param h The height in pixels
+	 * @param transparency One of Transparency.OPAQUE, BITMASK or TRANSLUCENT
+	 * @return The new image
+	 */
+	public static BufferedImage createImage(int w, int h, int transparency)
+	{
+		GraphicsConfiguration gc = getConfiguration();
+		if (gc != null)
+			return gc.createCompatibleImage(w, h, transparency);
+		if (transparency == Transparency.OPAQUE)
+			return new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+	}
+
+	/**
+	 * Work out the narrowest transparency mode that can hold 'pixels'.
+	 */
+	private static int transparencyOf(int[] pixels)
+	{
+		int result = Transparency.OPAQUE;
+		for (int p : pixels)
+		{
+			int a = p >>> 24;
+			if (a == 0xff) continue;
+			if (a != 0) return Transparency.TRANSLUCENT;
+			result = Transparency.BITMASK;
+		}
+		return result;
+	}
+}
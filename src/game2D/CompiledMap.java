@@ -0,0 +1,281 @@
+package game2D;
+
+import java.awt.Image;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * CompiledMap saves a loaded TileMap in a binary form that can be loaded
+ * again without parsing. Loading memory maps the file and uses the mapped
+ * tile grid as the map's storage, so the cost does not depend on the number
+ * of tiles. The mapping is read only, so the file can be installed read only
+ * and setting tiles never changes it; the map copies the grid the first time
+ * a tile is set.
+ * <p>
+ * A compiled file records the length and modification time of the text map
+ * it was made from, and is ignored once the text map changes. The file is
+ * little endian and laid out as follows:
+ *
+ * <pre>
+ *  0  int   magic ('TMAP')
+ *  4  int   version
+ *  8  long  length of the text map
+ * 16  long  modification time of the text map
+ * 24  int   map width, map height, tile width, tile height (in that order)
+ * 40  int   number of tile types
+ * 44  int   chunk size in tiles, 0 if there is no chunk index
+ * 48  long  offset of the chunk index
+ * 56  long  offset of the tile grid
+ * 64        tile types: char, int flags, short length and UTF-8 image file
+ *           chunk index: one int per chunk in row order, the number of
+ *           tiles in the chunk that are not blank. It is reserved for tools
+ *           and later versions, and is not read by load()
+ *           tile grid: one char per tile in row order, 8 byte aligned
+ * </pre>
+ *
+ * The maps can be compiled ahead of time with
+ * <code>java game2D.CompiledMap outFolder maps/map.txt ...</code>
+ */
+public class CompiledMap {
+
+	public static final int MAGIC = 0x544d4150;		// 'TMAP'
+	public static final int VERSION = 1;
+
+	// Size of the chunks counted in the chunk index, in tiles
+	public static final int CHUNK_TILES = 16;
+
+	private static final int HEADER_SIZE = 64;
+
+	/**
+	 * @param mapfile The name of a text map, e.g. "map.txt"
+	 * @return The name to save its compiled form under, e.g. "map.bin"
+	 */
+	public static String compiledName(String mapfile)
+	{
+		int dot = mapfile.lastIndexOf('.');
+		return ((dot > 0) ? mapfile.substring(0, dot) : mapfile) + ".bin";
+	}
+
+	/**
+	 * Save 'map' to 'out' in compiled form. Tiles changed since the map was
+	 * loaded are saved as they are now.
+	 *
+	 * @param map The map to save, loaded from 'source'
+	 * @param source The text map 'map' was loaded from
+	 * @param out The file to save to; its folder is created if needed
+	 * @return true if the map was saved, false otherwise
+	 */
+	public static boolean save(TileMap map, File source, File out)
+	{
+		int w = map.getMapWidth(), h = map.getMapHeight();
+		char[] tiles = new char[w * h];
+		map.copyTiles(tiles);
+		TileType[] types = map.getTypes();
+
+		// Work out the size of the type table and the chunk index
+		int typeBytes = typeTableBytes(types);
+		int cw = (w + CHUNK_TILES - 1) / CHUNK_TILES;
+		int ch = (h + CHUNK_TILES - 1) / CHUNK_TILES;
+		long indexOffset = HEADER_SIZE + typeBytes;
+		long gridOffset = (indexOffset + 4L * cw * ch + 7) & ~7L;
+
+		ByteBuffer head = ByteBuffer.allocate((int)gridOffset).order(ByteOrder.LITTLE_ENDIAN);
+		head.putInt(MAGIC).putInt(VERSION);
+		head.putLong(source.length()).putLong(source.lastModified());
+		head.putInt(w).putInt(h).putInt(map.getTileWidth()).putInt(map.getTileHeight());
+		head.putInt(countTypes(types)).putInt(CHUNK_TILES);
+		head.putLong(indexOffset).putLong(gridOffset);
+		putTypes(head, types);
+
+		// Count the tiles that are not blank in each chunk
+		int[] counts = new int[cw * ch];
+		for (int y=0; y<h; y++)
+			for (int x=0; x<w; x++)
+				if (tiles[y*w + x] != '.') counts[(y / CHUNK_TILES) * cw + x / CHUNK_TILES]++;
+		for (int c : counts) head.putInt(c);
+		head.rewind();
+
+		ByteBuffer grid = ByteBuffer.allocate(tiles.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+		grid.asCharBuffer().put(tiles);
+
+		// Write to a temporary file first, so a half written file is never loaded
+		File dir = out.getAbsoluteFile().getParentFile();
+		File tmp = new File(dir, out.getName() + ".tmp");
+		try
+		{
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("could not create folder");
+			FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			while (head.hasRemaining()) fc.write(head);
+			while (grid.hasRemaining()) fc.write(grid);
+			fc.close();
+			Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Failed to save compiled map '" + out + "':" + e);
+			tmp.delete();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Load 'compiled' into 'map' if it is a compiled form of 'source' as it
+	 * is now.
+	 *
+	 * @param map The map to load into
+	 * @param source The text map 'compiled' was made from
+	 * @param compiled The compiled map file
+	 * @return true if the map was loaded, false if 'compiled' does not exist,
+	 * is out of date or could not be read, in which case 'map' is unchanged
+	 */
+	public static boolean load(TileMap map, File source, File compiled)
+	{
+		if (!compiled.isFile()) return false;
+
+		try
+		{
+			MappedByteBuffer buf;
+			FileChannel fc = FileChannel.open(compiled.toPath(), StandardOpenOption.READ);
+			try
+			{
+				buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			}
+			finally
+			{
+				fc.close();
+			}
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+
+			if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION)
+				throw new IOException("not a compiled map of version " + VERSION);
+			if (buf.getLong(8) != source.length() || buf.getLong(16) != source.lastModified())
+				return false;
+
+			int w = buf.getInt(24), h = buf.getInt(28);
+			int tw = buf.getInt(32), th = buf.getInt(36);
+			int typeCount = buf.getInt(40);
+			long gridOffset = buf.getLong(56);
+			if (w <= 0 || h <= 0 || gridOffset + 2L * w * h > buf.capacity())
+				throw new IOException("bad dimensions");
+
+			buf.position(HEADER_SIZE);
+			TileType[] types = getTypes(buf, typeCount);
+
+			buf.position((int)gridOffset);
+			buf.limit((int)(gridOffset + 2L * w * h));
+			ByteBuffer tiles = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+			map.setCompiled(w, h, tw, th, types, tiles);
+		}
+		catch (Exception e)
+		{
+			System.err.println("Failed to read compiled map '" + compiled + "':" + e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return The number of types in 'types' that have an image, which are
+	 * the ones written by putTypes()
+	 */
+	static int countTypes(TileType[] types)
+	{
+		int n = 0;
+		for (TileType t : types)
+			if (t.getImage() != null) n++;
+		return n;
+	}
+
+	/**
+	 * @return The number of bytes putTypes() writes for 'types'
+	 */
+	static int typeTableBytes(TileType[] types)
+	{
+		int n = 0;
+		for (TileType t : types)
+			if (t.getImage() != null)
+				n += 8 + t.getFile().getBytes(StandardCharsets.UTF_8).length;
+		return n;
+	}
+
+	/**
+	 * Write every type in 'types' that has an image to 'buf' as its
+	 * character, flags, and the length and UTF-8 bytes of its image file.
+	 */
+	static void putTypes(ByteBuffer buf, TileType[] types)
+	{
+		for (TileType t : types)
+		{
+			if (t.getImage() == null) continue;
+			byte[] name = t.getFile().getBytes(StandardCharsets.UTF_8);
+			buf.putChar(t.getCharacter()).putInt(t.getFlags());
+			buf.putShort((short)name.length).put(name);
+		}
+	}
+
+	/**
+	 * Read 'count' types written by putTypes() from 'buf', loading their
+	 * images.
+	 *
+	 * @return A type table as made by TileMap.newTypes() holding the types
+	 * @throws IOException if an image could not be loaded
+	 */
+	static TileType[] getTypes(ByteBuffer buf, int count) throws IOException
+	{
+		TileType[] types = TileMap.newTypes(0);
+		for (int i=0; i<count; i++)
+		{
+			char c = buf.getChar();
+			int flags = buf.getInt();
+			byte[] name = new byte[buf.getShort()];
+			buf.get(name);
+			String file = new String(name, StandardCharsets.UTF_8);
+
+			Image img = CompatibleImages.load(file);
+			if (img == null) throw new IOException("could not load image '" + file + "'");
+			if (c >= types.length)
+			{
+				TileType[] grown = TileMap.newTypes(c + 1);
+				System.arraycopy(types, 0, grown, 0, types.length);
+				types = grown;
+			}
+			types[c] = new TileType(c, img, file, flags);
+		}
+		return types;
+	}
+
+	/**
+	 * Compile text maps ahead of time.
+	 *
+	 * @param args The folder to save to, followed by the text maps to compile
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: java game2D.CompiledMap outFolder map.txt ...");
+			return;
+		}
+		for (int i=1; i<args.length; i++)
+		{
+			File source = new File(args[i]);
+			File out = new File(args[0], compiledName(source.getName()));
+			TileMap map = new TileMap();
+			String folder = (source.getParent() != null) ? source.getParent() : ".";
+			if (map.loadMap(folder, source.getName()) && save(map, source, out))
+				System.out.println(source + " -> " + out);
+		}
+	}
+}
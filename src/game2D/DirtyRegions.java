@@ -0,0 +1,189 @@
+package game2D;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+
+/**
+ * DirtyRegions collects the parts of the screen that need redrawing this
+ * frame. Rectangles that overlap or touch are merged as they are added, and
+ * if there are more than a set number left the two whose union wastes the
+ * least area are merged, so drawing never has to visit more than a few
+ * regions. Once the dirty area passes a set fraction of the screen, the
+ * whole screen is marked instead, since one full redraw is then cheaper
+ * than several partial ones.
+ */
+public class DirtyRegions {
+
+	private int width, height;			// Size of the screen the regions are in
+	private int maxRects;				// Most rectangles to keep before merging
+	private float fullThreshold;		// Fraction of the screen that triggers a full redraw
+	private ArrayList<Rectangle> rects = new ArrayList<Rectangle>();
+	private boolean full;				// true if the whole screen is dirty
+	private long fullRedraws;			// Number of frames cleared while full
+
+	/**
+	 * Create an empty set of regions.
+	 *
+	 * @param maxRects The most rectangles to keep before merging them
+	 * @param fullThreshold The fraction of the screen area (0 to 1) above
+	 * which the whole screen is redrawn
+	 */
+	public DirtyRegions(int maxRects, float fullThreshold)
+	{
+		this.maxRects = Math.max(1, maxRects);
+		this.fullThreshold = fullThreshold;
+	}
+
+	/**
+	 * Set the size of the screen. Rectangles are clipped to it and the
+	 * whole screen is marked dirty.
+	 *
+	 * @param w The screen width in pixels
+	 * @param h The screen height in pixels
+	 */
+	public void setBounds(int w, int h)
+	{
+		width = w;
+		height = h;
+		addAll();
+	}
+
+	/**
+	 * @param threshold The fraction of the screen area (0 to 1) above which
+	 * the whole screen is redrawn
+	 */
+	public void setFullThreshold(float threshold) { fullThreshold = threshold; }
+
+	/**
+	 * Mark the whole screen as dirty.
+	 */
+	public void addAll()
+	{
+		full = true;
+		rects.clear();
+	}
+
+	/**
+	 * Mark a rectangle of the screen as dirty.
+	 *
+	 * @param r The rectangle in screen pixels, which is not kept
+	 */
+	public void add(Rectangle r)
+	{
+		add(r.x, r.y, r.width, r.height);
+	}
+
+	/**
+	 * Mark a rectangle of the screen as dirty.
+	 *
+	 * @param x The left of the rectangle in pixels
+	 * @param y The top of the rectangle in pixels
+	 * @param w The width in pixels
+	 * @param h The height in pixels
+	 */
+	public void add(int x, int y, int w, int h)
+	{
+		if (full) return;
+
+		// Clip to the screen
+		int x1 = Math.min(width, x + w);
+		int y1 = Math.min(height, y + h);
+		x = Math.max(0, x);
+		y = Math.max(0, y);
+		if (x1 <= x || y1 <= y) return;
+		Rectangle r = new Rectangle(x, y, x1 - x, y1 - y);
+
+		// Absorb every rectangle this one overlaps or touches. The union can
+		// grow into others, so keep going until nothing more is absorbed
+		boolean merged = true;
+		while (merged)
+		{
+			merged = false;
+			for (int i=0; i<rects.size(); i++)
+			{
+				Rectangle e = rects.get(i);
+				if (e.x <= r.x + r.width && r.x <= e.x + e.width &&
+					e.y <= r.y + r.height && r.y <= e.y + e.height)
+				{
+					r.add(e);
+					rects.remove(i);
+					merged = true;
+					break;
+				}
+			}
+		}
+		rects.add(r);
+
+		while (rects.size() > maxRects) mergeCheapestPair();
+
+		if (getArea() > fullThreshold * width * height) addAll();
+	}
+
+	/**
+	 * Merge the two rectangles whose union covers the least area that is
+	 * not in either of them.
+	 */
+	private void mergeCheapestPair()
+	{
+		int bestA = 0, bestB = 1;
+		long bestWaste = Long.MAX_VALUE;
+		for (int a=0; a<rects.size(); a++)
+		{
+			for (int b=a+1; b<rects.size(); b++)
+			{
+				Rectangle ra = rects.get(a), rb = rects.get(b);
+				Rectangle u = ra.union(rb);
+				long waste = area(u) - area(ra) - area(rb);
+				if (waste < bestWaste)
+				{
+					bestWaste = waste;
+					bestA = a;
+					bestB = b;
+				}
+			}
+		}
+		rects.get(bestA).add(rects.get(bestB));
+		rects.remove(bestB);
+	}
+
+	private static long area(Rectangle r)
+	{
+		return (long)r.width * r.height;
+	}
+
+	/**
+	 * @return true if the whole screen needs redrawing
+	 */
+	public boolean isFull() { return full; }
+
+	/**
+	 * @return The dirty rectangles, empty if the whole screen is dirty (see isFull())
+	 */
+	public ArrayList<Rectangle> getRects() { return rects; }
+
+	/**
+	 * @return The area of the screen that needs redrawing in pixels
+	 */
+	public long getArea()
+	{
+		if (full) return (long)width * height;
+		long total = 0;
+		for (Rectangle r : rects) total += area(r);
+		return total;
+	}
+
+	/**
+	 * @return The number of frames that redrew the whole screen
+	 */
+	public long getFullRedraws() { return fullRedraws; }
+
+	/**
+	 * Forget all dirty regions once the frame has been drawn.
+	 */
+	public void clear()
+	{
+		if (full) fullRedraws++;
+		full = false;
+		rects.clear();
+	}
+}
@@ -4,7 +4,7 @@ import java.io.*;
 
 public class FadeFilterStream extends FilterInputStream {
 
-    FadeFilterStream(InputStream in) { super(in); }
+    public FadeFilterStream(InputStream in) { super(in); }
 
     // Get a value from the array 'buffer' at the given 'position'
     // and convert it into short big-endian format
@@ -0,0 +1,131 @@
+package game2D;
+
+import java.awt.DisplayMode;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * FrameScheduler paces a game loop to a target frame rate. Rather than
+ * sleeping for a fixed time after each frame, it keeps a deadline for the
+ * start of the next frame and waits only for whatever time is left. Most of
+ * the wait is spent parked; the last part is spent yielding in a loop so the
+ * frame starts close to its deadline even when the OS timer is coarse.
+ * <p>
+ * Subclasses can override waitForNextFrame() to plug in a different pacing
+ * policy, for example one that never waits at all.
+ */
+public class FrameScheduler {
+
+	// Default rate used when the display does not report a refresh rate
+	public static final int DEFAULT_FRAME_RATE = 60;
+
+	// How long before a deadline to stop parking and start yielding (ns)
+	private static final long SPIN_THRESHOLD = 2000000L;
+
+	private long framePeriod;		// Time between frames in nanoseconds
+	private long nextDeadline;		// When the next frame should start, 0 if not started
+	private long missedDeadlines;	// Number of frames that started late
+	private long lateness;			// How late the last frame started (ns)
+
+	/**
+	 * Creates a scheduler for the given frame rate.
+	 *
+	 * @param frameRate The number of frames per second to aim for
+	 */
+	public FrameScheduler(int frameRate)
+	{
+		setFrameRate(frameRate);
+	}
+
+	/**
+	 * Creates a scheduler that paces frames to the refresh rate of 'mode'.
+	 * If the refresh rate is unknown, DEFAULT_FRAME_RATE is used instead.
+	 *
+	 * @param mode The display mode to take the refresh rate from
+	 * @return A new FrameScheduler
+	 */
+	public static FrameScheduler forDisplay(DisplayMode mode)
+	{
+		int rate = DEFAULT_FRAME_RATE;
+		if (mode != null && mode.getRefreshRate() != DisplayMode.REFRESH_RATE_UNKNOWN)
+			rate = mode.getRefreshRate();
+		return new FrameScheduler(rate);
+	}
+
+	/**
+	 * Change the target frame rate. A rate of 0 or less disables pacing.
+	 *
+	 * @param frameRate The number of frames per second to aim for
+	 */
+	public void setFrameRate(int frameRate)
+	{
+		framePeriod = (frameRate > 0) ? 1000000000L / frameRate : 0;
+		nextDeadline = 0;
+	}
+
+	/**
+	 * Change the target time between frames. A period of 0 or less disables pacing.
+	 *
+	 * @param period The time between frames in nanoseconds
+	 */
+	public void setFramePeriod(long period)
+	{
+		framePeriod = Math.max(0, period);
+		nextDeadline = 0;
+	}
+
+	/**
+	 * Start the schedule again from the next call to waitForNextFrame(),
+	 * e.g. after the loop has been paused, so the pause is not counted as
+	 * a missed deadline.
+	 */
+	public void reset() { nextDeadline = 0; }
+
+	/**
+	 * @return The target time between frames in nanoseconds
+	 */
+	public long getFramePeriod() { return framePeriod; }
+
+	/**
+	 * @return The number of frames that were ready after their deadline
+	 */
+	public long getMissedDeadlines() { return missedDeadlines; }
+
+	/**
+	 * @return How late (in nanoseconds) the most recent frame was, 0 if on time
+	 */
+	public long getLastLateness() { return lateness; }
+
+	/**
+	 * Waits until it is time to start the next frame. Call this once at the
+	 * end of each pass through the game loop. If the frame took longer than
+	 * its budget no wait happens, the miss is counted, and the schedule is
+	 * restarted from now so the loop does not try to make up lost frames.
+	 */
+	public void waitForNextFrame()
+	{
+		if (framePeriod <= 0) return;
+
+		long now = System.nanoTime();
+		if (nextDeadline == 0) nextDeadline = now;
+		nextDeadline += framePeriod;
+
+		long remaining = nextDeadline - now;
+		if (remaining < 0)
+		{
+			missedDeadlines++;
+			lateness = -remaining;
+			nextDeadline = now;
+			return;
+		}
+		lateness = 0;
+
+		// Park for the bulk of the time, then yield until the deadline
+		while (remaining > SPIN_THRESHOLD)
+		{
+			LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+			remaining = nextDeadline - System.nanoTime();
+		}
+		while (nextDeadline - System.nanoTime() > 0)
+			Thread.yield();
+	}
+}
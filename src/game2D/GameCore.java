@@ -1,11 +1,20 @@
 package game2D;
 
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
+import java.io.PrintStream;
+import java.util.ArrayList;
 
 import javax.swing.*;
 
@@ -21,21 +30,45 @@ public abstract class GameCore extends JFrame implements KeyListener, MouseListe
 	private static final long serialVersionUID = 1L;
 
 	protected static final int FONT_SIZE = 12;
+	
+	// Longest the loop sleeps while idle before showing the frame again (ms)
+	private static final long IDLE_TIMEOUT = 500;
     
     private ScreenManager screen;		// A screen manager to use
     private DisplayMode displayMode;	// The required display mode
 
-    private boolean isRunning;			// true if the game loop should continue
+    private volatile boolean isRunning;	// true if the game loop should continue
     private boolean fullScreen;			// true if the game is in full screen mode
     private	long startTime;				// The time the game started
     private long currTime;				// The current time
     private long elapsedTime;			// Elapsed time since previous check
     
+    private long stepTime;				// Fixed simulation step in milliseconds, 0 for variable steps
+    private int maxCatchUpSteps;		// Maximum number of fixed steps to run before drawing
+    private FrameScheduler scheduler;	// Paces the loop, null until the loop starts unless set
+    private boolean renderThread;		// true to draw on a separate thread from update
+    
+    // Per-frame timings for each phase of the loop, plus any timers added by the game
+    private LatencyHistogram updateTimes = new LatencyHistogram("update");
+    private LatencyHistogram drawTimes = new LatencyHistogram("draw");
+    private LatencyHistogram presentTimes = new LatencyHistogram("present");
+    private ArrayList<LatencyHistogram> timers = new ArrayList<LatencyHistogram>();
+    private boolean dumpStats;			// true to print the timings when the loop exits
+    
     private long frames;				// Used to calculate frames per second (FPS)
     private Window win;					// Window object used to handle the display
     
-    private BufferedImage buffer=null;	// buffer is used as a buffered image for drawing offscreen
-    private Graphics2D bg=null;    		// The virtual Graphics2D device associated with the above image
+    private int bufferCount;			// Number of buffers in the window's BufferStrategy
+    
+    // Dirty rectangle rendering: frames are drawn into 'canvas', which keeps
+    // its contents between frames, and only the dirty regions are redrawn
+    private boolean dirtyRendering;
+    private DirtyRegions dirty = new DirtyRegions(16, 0.5f);
+    private BufferedImage canvas;
+    
+    // Idle mode: while isIdle() is true the loop sleeps until wake() is called
+    private final Object idleLock = new Object();
+    private long wakeCount;				// Number of calls to wake(), guarded by idleLock
     
     
     /**
@@ -50,15 +83,147 @@ public abstract class GameCore extends JFrame implements KeyListener, MouseListe
         frames = 1;
         startTime = 1;
         currTime = 1;
+        
+        stepTime = 0;
+        maxCatchUpSteps = 5;
+        bufferCount = 2;
+        
+        timers.add(updateTimes);
+        timers.add(drawTimes);
+        timers.add(presentTimes);
     }
 
+    /**
+     * Switches the game loop to a fixed timestep. The update() method is then
+     * always called with 'step' milliseconds, as many times as needed to keep
+     * up with real time, but never more than 'maxSteps' times before a frame is
+     * drawn. Any time left over is passed to draw() as an interpolation alpha.
+     * A 'step' of 0 or less restores the default variable timestep.
+     * 
+     * @param step The simulation step in milliseconds
+     * @param maxSteps The maximum number of catch-up steps per frame
+     */
+    public void setFixedTimestep(long step, int maxSteps)
+    {
+    	stepTime = Math.max(0, step);
+    	maxCatchUpSteps = Math.max(1, maxSteps);
+    }
+    
+    /**
+     * @return The fixed simulation step in milliseconds, 0 if the timestep is variable
+     */
+    public long getFixedTimestep() { return stepTime; }
+    
+    /**
+     * Sets how many buffers (2 for double, 3 for triple buffering) the window
+     * should page flip between. This must be called before run().
+     * 
+     * @param buffers The number of buffers, clamped to 2 or 3
+     */
+    public void setBufferCount(int buffers)
+    {
+    	bufferCount = Math.max(2, Math.min(3, buffers));
+    }
+    
+    /**
+     * Selects whether update() and drawing run on separate threads. In that
+     * mode the game loop thread only simulates, calling captureSnapshot() after
+     * each batch of updates, and a render thread draws each frame with
+     * drawSnapshot() from the latest snapshot. A fixed timestep is used; if
+     * none has been set, 10ms steps are used. This must be called before run().
+     * 
+     * @param separate true to simulate and render on separate threads
+     */
+    public void setRenderThread(boolean separate) { renderThread = separate; }
+    
+    /**
+     * Selects dirty rectangle rendering. Frames are then drawn into an
+     * off-screen image that keeps its contents from frame to frame, and
+     * each frame collectDirty() is asked which parts of the screen have
+     * changed. draw() is called once for each dirty rectangle with the clip
+     * set to it, and the image is then copied to the screen. It has no
+     * effect when setRenderThread(true) is in use.
+     * 
+     * @param on true to redraw only the dirty regions of each frame
+     */
+    public void setDirtyRendering(boolean on)
+    {
+    	dirtyRendering = on;
+    	canvas = null;
+    }
+    
+    /**
+     * @return The regions used by dirty rectangle rendering, e.g. to change the full redraw threshold
+     */
+    public DirtyRegions getDirtyRegions() { return dirty; }
+    
+    /**
+     * Sets the scheduler used to pace frames. If none is set before the game
+     * loop starts, one is created for the refresh rate of the display.
+     * 
+     * @param fs The frame scheduler to use
+     */
+    public void setFrameScheduler(FrameScheduler fs) { scheduler = fs; }
+    
+    /**
+     * @return The frame scheduler pacing the game loop
+     */
+    public FrameScheduler getFrameScheduler() { return scheduler; }
+
 
 
     /** 
      * Signals the game loop that it's time to quit 
      * 
      */
-    public void stop() { isRunning = false; }
+    public void stop() 
+    { 
+    	isRunning = false;
+    	wake();
+    }
+    
+    /**
+     * Wakes the game loop if it is idle (see isIdle()). The window calls
+     * this itself for input, resizing and being shown or activated, so it
+     * only needs calling for anything else that should end an idle wait.
+     */
+    public void wake()
+    {
+    	synchronized (idleLock)
+    	{
+    		wakeCount++;
+    		idleLock.notifyAll();
+    	}
+    }
+    
+    /**
+     * @return The number of calls to wake() so far
+     */
+    private long getWakeCount()
+    {
+    	synchronized (idleLock) { return wakeCount; }
+    }
+    
+    /**
+     * Waits until wake() has been called more than 'seen' times, or until
+     * IDLE_TIMEOUT has passed, so that a frame is shown again now and then
+     * even if a window event was missed.
+     * 
+     * @param seen The wake count read before the frame was drawn
+     */
+    private void waitIdle(long seen)
+    {
+    	long end = System.currentTimeMillis() + IDLE_TIMEOUT;
+    	synchronized (idleLock)
+    	{
+    		long left;
+    		while (isRunning && wakeCount == seen && (left = end - System.currentTimeMillis()) > 0)
+    		{
+    			try { idleLock.wait(left); }
+    			catch (InterruptedException ex) { return; }
+    		}
+    	}
+    }
 
 
     /** 
@@ -107,9 +272,41 @@ public abstract class GameCore extends JFrame implements KeyListener, MouseListe
 
         setVisible(true);
         
+        // Both modes draw through a BufferStrategy on the window, so
+        // Swing's own painting is not needed
+        if (!fullScreen)
+        {
+        	setIgnoreRepaint(true);
+        	createBufferStrategy(bufferCount);
+        }
+        
+        // Images loaded from now on should match the window's pixel format
+        CompatibleImages.setConfiguration(win.getGraphicsConfiguration());
+        
         win.addKeyListener(this);
         win.addMouseListener(this);
         win.setFont(new Font("Dialog", Font.PLAIN, FONT_SIZE));
+        
+        // Anything that may need a new frame ends an idle wait. These are
+        // added after the game's own listeners, so input has been queued by
+        // the time the loop wakes
+        win.addKeyListener(new KeyAdapter() {
+        	public void keyPressed(KeyEvent e) { wake(); }
+        	public void keyReleased(KeyEvent e) { wake(); }
+        });
+        win.addMouseListener(new MouseAdapter() {
+        	public void mousePressed(MouseEvent e) { wake(); }
+        	public void mouseReleased(MouseEvent e) { wake(); }
+        	public void mouseClicked(MouseEvent e) { wake(); }
+        });
+        win.addComponentListener(new ComponentAdapter() {
+        	public void componentResized(ComponentEvent e) { wake(); }
+        	public void componentShown(ComponentEvent e) { wake(); }
+        });
+        win.addWindowListener(new WindowAdapter() {
+        	public void windowActivated(WindowEvent e) { wake(); }
+        	public void windowDeiconified(WindowEvent e) { wake(); }
+        });
     }
     
     /**
@@ -129,7 +326,7 @@ public abstract class GameCore extends JFrame implements KeyListener, MouseListe
     	// Full screen only from here on
     	if (show)
     	{
-            screen.setFullScreen(displayMode);
+            screen.setFullScreen(displayMode, bufferCount);
     		win = screen.getFullScreenWindow();
     	}
     	else
@@ -142,75 +339,299 @@ public abstract class GameCore extends JFrame implements KeyListener, MouseListe
      * Loads an image with the given 'fileName'
      * 
      * @param fileName The file path to the image file that should be loaded 
-     * @return A reference to the Image object that was loaded
+     * @return A reference to the Image object that was loaded, or null if it could not be loaded
      */
     public Image loadImage(String fileName) 
     { 
-    	return new ImageIcon(fileName).getImage(); 
+    	return CompatibleImages.load(fileName); 
     }
 
     /**
      *  Runs through the game loop until stop() is called. 
      *  
      *  This method will call your update() method followed by your draw()
-     *  method to display the updated game state. It implements double buffering
-     *  for both full screen and windowed mode.
+     *  method to display the updated game state. Both full screen and windowed
+     *  mode page flip through a BufferStrategy (see setBufferCount()). Time is measured with
+     *  System.nanoTime() and, if setFixedTimestep() has been called, update()
+     *  is driven in fixed steps from an accumulator. While isIdle() returns
+     *  true, the loop sleeps after each frame until wake() is called instead
+     *  of drawing frames at the display's rate.
      */
     public void gameLoop() {
         startTime = System.currentTimeMillis();
         currTime = startTime;
         frames = 1;		// Keep a note of frames for performance measure
 
-        Graphics2D g;
         isRunning = true;
         
-        // Create our own buffer
-        buffer = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-        bg = (Graphics2D)buffer.createGraphics();
-        bg.setClip(0, 0, getWidth(), getHeight());
+        if (scheduler == null)
+        {
+        	ScreenManager sm = (screen != null) ? screen : new ScreenManager();
+        	scheduler = FrameScheduler.forDisplay(sm.getCurrentDisplayMode());
+        }
+        
+        if (renderThread)
+        {
+        	runThreaded();
+        	exit();
+        }
+        
+        long loopStart = System.nanoTime();
+        long lastTime = loopStart;
+        long accumulator = 0;
+        float alpha = 1.0f;
         
         while (isRunning) {
-            elapsedTime = System.currentTimeMillis() - currTime;
-            currTime += elapsedTime;
-
-            // Call the overridden update method
-            update(elapsedTime);
-
-	        // Get the current graphics device 	            
-            g = (Graphics2D)win.getGraphics();
-            
-            
-	        if (g != null)
-	        {
- 	            if (fullScreen)
-	            {
-	            	// Set the clipping (drawable) region to be the screen bounds
-	            	g.setClip(0, 0, getWidth(), getHeight());
-		            draw(g);
-	            	screen.update();
-	            	g.dispose();
-	            }
-	            else
-	            {
-	            	draw(bg);
-	            	g.drawImage(buffer,null,0,0);
- 	            }
+        	long seen = getWakeCount();
+        	long now = System.nanoTime();
+        	long delta = now - lastTime;
+        	lastTime = now;
+        	long updateStart = now;
+        	
+            if (stepTime > 0)
+            {
+            	// Run as many fixed steps as the elapsed time allows, but drop
+            	// any backlog beyond maxCatchUpSteps rather than spiral behind
+            	long step = stepTime * 1000000L;
+            	accumulator += delta;
+            	int steps = 0;
+            	while (accumulator >= step && steps < maxCatchUpSteps)
+            	{
+            		update(stepTime);
+            		accumulator -= step;
+            		steps++;
+            	}
+            	if (accumulator >= step) accumulator = accumulator % step;
+            	alpha = (float)accumulator / step;
+            	elapsedTime = steps * stepTime;
             }
             else
             {
-            	System.err.println("Null reference for graphics");
-            	break;
+            	// Carry the sub-millisecond remainder into the next frame
+            	accumulator += delta;
+            	elapsedTime = accumulator / 1000000L;
+            	accumulator -= elapsedTime * 1000000L;
+            	update(elapsedTime);
             }
+            currTime = startTime + (now - loopStart) / 1000000L;
+            updateTimes.record(System.nanoTime() - updateStart);
+
+            if (!present(null, alpha)) break;
             
             frames++;
 
-            // take a nap
-            try {
-                Thread.sleep(10);
+            if (isIdle())
+            {
+            	// Sleep until something happens, then run one step straight
+            	// away so any input that woke the loop is handled
+            	waitIdle(seen);
+            	lastTime = System.nanoTime();
+            	accumulator = stepTime * 1000000L;
+            	scheduler.reset();
+            	continue;
             }
-            catch (InterruptedException ex) { }
+
+            // Wait until the next frame is due
+            scheduler.waitForNextFrame();
         }
-        System.exit(0);
+        exit();
+    }
+    
+    /**
+     * Prints the frame timings if requested and ends the program.
+     */
+    private void exit()
+    {
+    	if (dumpStats) dumpFrameStats(System.out);
+    	shutdown();
+    	System.exit(0);
+    }
+    
+    /**
+     * Runs the simulation on the calling thread and drawing on a separate
+     * render thread until stop() is called. Snapshots pass from one to the
+     * other through a TripleBuffer, so neither thread waits for the other.
+     */
+    private void runThreaded()
+    {
+    	if (stepTime <= 0) stepTime = 10;
+    	final long step = stepTime * 1000000L;
+    	final TripleBuffer<RenderSnapshot> snapshots = new TripleBuffer<RenderSnapshot>(
+    			new RenderSnapshot(), new RenderSnapshot(), new RenderSnapshot());
+    	
+    	Thread renderer = new Thread(new Runnable() {
+    		public void run() {
+    			while (isRunning)
+    			{
+    				long seen = getWakeCount();
+    				boolean fresh = snapshots.update();
+    				if (snapshots.hasPublished())
+    				{
+    					// While idle, the last frame is only shown again once woken.
+    					// Idleness comes from the snapshot, as isIdle() reads the
+    					// game state and must only be called on this loop's thread
+    					if (!fresh && snapshots.getReadBuffer().isIdle())
+    					{
+    						waitIdle(seen);
+    						snapshots.update();
+    						scheduler.reset();
+    					}
+    					RenderSnapshot snap = snapshots.getReadBuffer();
+    					if (!present(snap, snap.getAlpha(System.nanoTime()))) stop();
+    					frames++;
+    				}
+    				scheduler.waitForNextFrame();
+    			}
+    		}
+    	}, "Render");
+    	renderer.start();
+    	
+    	// Simulate in fixed steps, publishing a snapshot after each batch
+    	FrameScheduler ticker = new FrameScheduler(0);
+    	ticker.setFramePeriod(step);
+    	long loopStart = System.nanoTime();
+    	long lastTime = loopStart;
+    	long accumulator = 0;
+    	
+    	while (isRunning)
+    	{
+    		long seen = getWakeCount();
+    		long now = System.nanoTime();
+    		accumulator += now - lastTime;
+    		lastTime = now;
+    		
+    		int steps = 0;
+    		while (accumulator >= step && steps < maxCatchUpSteps)
+    		{
+    			update(stepTime);
+    			accumulator -= step;
+    			steps++;
+    		}
+    		if (accumulator >= step) accumulator = accumulator % step;
+    		elapsedTime = steps * stepTime;
+    		currTime = startTime + (now - loopStart) / 1000000L;
+    		
+    		if (steps > 0)
+    		{
+    			updateTimes.record(System.nanoTime() - now);
+    			RenderSnapshot snap = snapshots.getWriteBuffer();
+    			snap.clear();
+    			snap.setTime(System.nanoTime(), stepTime);
+    			captureSnapshot(snap);
+    			snap.setIdle(isIdle());
+    			snapshots.publish();
+    			// Wake the render thread in case it is idle, without
+    			// counting it as a reason for this thread to stay awake
+    			wake();
+    			seen++;
+    		}
+    		
+    		if (isIdle())
+    		{
+    			waitIdle(seen);
+    			lastTime = System.nanoTime();
+    			accumulator = step;
+    			ticker.reset();
+    			continue;
+    		}
+    		ticker.waitForNextFrame();
+    	}
+    	
+    	try {
+    		renderer.join();
+    	}
+    	catch (InterruptedException ex) { }
+    }
+    
+    /**
+     * Draws the current frame into the back buffer of the window's
+     * BufferStrategy and flips it onto the screen. If the buffer contents
+     * are lost or restored while drawing, the frame is drawn again.
+     * 
+     * @param snap The snapshot to draw from, or null to draw the live game state
+     * @param alpha The interpolation alpha to pass to draw()
+     * @return false if no graphics device was available
+     */
+    private boolean present(RenderSnapshot snap, float alpha)
+    {
+    	BufferStrategy strategy = win.getBufferStrategy();
+    	if (strategy == null)
+    	{
+        	System.err.println("Null reference for graphics");
+        	return false;
+    	}
+    	
+    	long drawTime = 0;
+    	long start = System.nanoTime();
+    	if (dirtyRendering && snap == null)
+    	{
+    		drawDirty(alpha);
+    		drawTime = System.nanoTime() - start;
+    	}
+    	else
+    		canvas = null;
+    	
+    	do
+    	{
+    		do
+    		{
+    			long drawStart = System.nanoTime();
+    			Graphics2D g = (Graphics2D)strategy.getDrawGraphics();
+    			// Set the clipping (drawable) region to be the screen bounds
+    			g.setClip(0, 0, getWidth(), getHeight());
+    			if (canvas != null)
+    				g.drawImage(canvas, 0, 0, null);
+    			else if (snap != null)
+    				drawSnapshot(g, snap, alpha);
+    			else
+    				draw(g, alpha);
+    			g.dispose();
+    			drawTime += System.nanoTime() - drawStart;
+    		}
+    		while (strategy.contentsRestored());
+    		
+    		strategy.show();
+    	}
+    	while (strategy.contentsLost());
+    	
+        // Sync the display on some systems.
+        // (on Linux, this fixes event queue problems)
+    	Toolkit.getDefaultToolkit().sync();
+    	
+    	drawTimes.record(drawTime);
+    	presentTimes.record(System.nanoTime() - start - drawTime);
+        return true;
+    }
+
+    /**
+     * Brings 'canvas' up to date by redrawing the regions collectDirty()
+     * reports, or all of it if it has just been created.
+     */
+    private void drawDirty(float alpha)
+    {
+    	int w = getWidth();
+    	int h = getHeight();
+    	if (canvas == null || canvas.getWidth() != w || canvas.getHeight() != h)
+    	{
+    		canvas = CompatibleImages.createImage(w, h, Transparency.OPAQUE);
+    		dirty.setBounds(w, h);
+    	}
+    	
+    	collectDirty(dirty, alpha);
+    	
+    	Graphics2D g = canvas.createGraphics();
+    	g.setFont(win.getFont());
+    	if (dirty.isFull())
+    	{
+    		g.setClip(0, 0, w, h);
+    		draw(g, alpha);
+    	}
+    	else
+    	{
+    		drawRegions(g, dirty.getRects(), alpha);
+    	}
+    	g.dispose();
+    	dirty.clear();
     }
 
     /**
@@ -244,6 +665,64 @@ public abstract class GameCore extends JFrame implements KeyListener, MouseListe
     	return (float)frames/((currTime - startTime)/1000.0f);
     }
 
+    /**
+     * @return Time spent in update() per frame
+     */
+    public LatencyHistogram getUpdateTimes() { return updateTimes; }
+    
+    /**
+     * @return Time spent in draw() per frame
+     */
+    public LatencyHistogram getDrawTimes() { return drawTimes; }
+    
+    /**
+     * @return Time spent showing each frame once it has been drawn
+     */
+    public LatencyHistogram getPresentTimes() { return presentTimes; }
+    
+    /**
+     * Creates a histogram for timing part of the game. It will be included
+     * whenever the frame timings are printed.
+     * 
+     * @param name The name to print the timer under
+     * @return A new, empty histogram
+     */
+    public LatencyHistogram createTimer(String name)
+    {
+    	LatencyHistogram h = new LatencyHistogram(name);
+    	timers.add(h);
+    	return h;
+    }
+    
+    /**
+     * Includes an existing histogram whenever the frame timings are printed.
+     * 
+     * @param h The histogram to add
+     * @return The histogram passed in
+     */
+    public LatencyHistogram addTimer(LatencyHistogram h)
+    {
+    	timers.add(h);
+    	return h;
+    }
+    
+    /**
+     * Prints a summary of every frame timing histogram to 'out'.
+     * 
+     * @param out The stream to print to
+     */
+    public void dumpFrameStats(PrintStream out)
+    {
+    	out.println("Frame timings over " + frames + " frames:");
+    	for (LatencyHistogram h : timers)
+    		h.print(out);
+    }
+    
+    /**
+     * @param dump true to print the frame timings when the game loop exits
+     */
+    public void setDumpStatsOnExit(boolean dump) { dumpStats = dump; }
+    
     /**
      * Handles the keyReleased event to check for the 'Escape' key being
      * pressed. If you override this method, make sure you allow the user 
@@ -289,4 +768,84 @@ public abstract class GameCore extends JFrame implements KeyListener, MouseListe
      * @param g The Graphics2D object to draw with.
      */
     public abstract void draw(Graphics2D g);
+    
+    /**
+     * Called by the game loop to draw a frame. When a fixed timestep is in
+     * use, 'alpha' is how far (0 to 1) real time has moved between the last
+     * update and the next one, so state can be drawn between the two. The
+     * default implementation ignores 'alpha' and calls draw(g).
+     * 
+     * @param g The Graphics2D object to draw with.
+     * @param alpha The interpolation factor between the previous and current state
+     */
+    public void draw(Graphics2D g, float alpha) { draw(g); }
+    
+    /**
+     * Called by the game loop after each frame to ask whether nothing will
+     * change until there is input or the window needs drawing again, e.g.
+     * while a menu is shown. If so, the loop sleeps until wake() is called
+     * (the window does this for input, resizing and being shown), then runs
+     * one update() and draws a frame. The default implementation returns
+     * false, so frames are drawn continuously. With setRenderThread(true)
+     * this is only called on the simulation thread; the render thread reads
+     * the answer from the snapshot it draws.
+     * 
+     * @return true if the loop can sleep until it is woken
+     */
+    public boolean isIdle() { return false; }
+    
+    /**
+     * Called before each frame when setDirtyRendering(true) is in use, to
+     * add the parts of the screen that have changed since the last frame to
+     * 'regions'. The default implementation marks the whole screen.
+     * 
+     * @param regions The regions to add to
+     * @param alpha The interpolation factor the frame will be drawn with
+     */
+    public void collectDirty(DirtyRegions regions, float alpha) { regions.addAll(); }
+    
+    /**
+     * Called when setDirtyRendering(true) is in use to redraw the parts of
+     * the screen that collectDirty() reported. The default implementation
+     * clips 'g' to each rectangle in turn and calls draw(g, alpha); override
+     * this to do the work that does not depend on the clip only once.
+     * 
+     * @param g The Graphics2D object to draw with
+     * @param rects The rectangles to redraw, in pixels
+     * @param alpha The interpolation factor between the previous and current state
+     */
+    public void drawRegions(Graphics2D g, ArrayList<Rectangle> rects, float alpha)
+    {
+    	for (Rectangle r : rects)
+    	{
+    		g.setClip(r);
+    		draw(g, alpha);
+    	}
+    }
+    
+    /**
+     * Called when the game loop has finished, just before the program exits.
+     * Override this to save or close anything that is still open.
+     */
+    public void shutdown() { }
+    
+    /**
+     * Called on the simulation thread after each batch of updates when
+     * setRenderThread(true) is in use. Override this to copy whatever needs
+     * drawing into 'snap'; the render thread will never see the live state.
+     * 
+     * @param snap An empty snapshot to fill
+     */
+    public void captureSnapshot(RenderSnapshot snap) { }
+    
+    /**
+     * Called on the render thread when setRenderThread(true) is in use to draw
+     * a frame from the most recent snapshot. Only the snapshot may be read
+     * here, not the live game state.
+     * 
+     * @param g The Graphics2D object to draw with.
+     * @param snap The most recently captured snapshot
+     * @param alpha The interpolation factor between the previous and current state
+     */
+    public void drawSnapshot(Graphics2D g, RenderSnapshot snap, float alpha) { }
 }
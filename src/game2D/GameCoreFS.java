@@ -1,7 +1,6 @@
 package game2D;
 
 import java.awt.*;
-import javax.swing.ImageIcon;
 
 /**
     Simple abstract class used for testing. Subclasses should
@@ -18,6 +17,7 @@ public abstract class GameCoreFS {
     private long elapsedTime;
 
     private long frames;
+    private FrameScheduler scheduler;
 
 
     /** Signals the game loop that it's time to quit */
@@ -45,13 +45,22 @@ public abstract class GameCoreFS {
         window.setBackground(Color.blue);
         window.setForeground(Color.white);
 
+        if (scheduler == null)
+            scheduler = FrameScheduler.forDisplay(screen.getCurrentDisplayMode());
+
         isRunning = true;
         frames = 1;
         startTime = 1;
         currTime = 1;
     }
 
-    public Image loadImage(String fileName) { return new ImageIcon(fileName).getImage(); }
+    /** Sets the scheduler used to pace frames, call before run(). */
+    public void setFrameScheduler(FrameScheduler fs) { scheduler = fs; }
+
+    /** Returns the scheduler pacing the game loop. */
+    public FrameScheduler getFrameScheduler() { return scheduler; }
+
+    public Image loadImage(String fileName) { return CompatibleImages.load(fileName); }
 
     /** Runs through the game loop until stop() is called. */
     public void gameLoop() {
@@ -76,11 +85,8 @@ public abstract class GameCoreFS {
             screen.update();
             frames++;
 
-            // take a nap
-            try {
-                Thread.sleep(20);
-            }
-            catch (InterruptedException ex) { }
+            // wait until the next frame is due
+            scheduler.waitForNextFrame();
         }
         System.exit(0);
     }
@@ -0,0 +1,31 @@
+package game2D;
+
+/**
+ * An InputHandler receives the input a game responds to, reduced to plain
+ * key codes and pixel positions so that it can come from the AWT event
+ * listeners, a script or a recording alike.
+ */
+public interface InputHandler {
+
+	/**
+	 * Handle a key being pressed.
+	 *
+	 * @param key The key code, as defined in java.awt.event.KeyEvent
+	 */
+	public void keyPressed(int key);
+
+	/**
+	 * Handle a key being released.
+	 *
+	 * @param key The key code, as defined in java.awt.event.KeyEvent
+	 */
+	public void keyReleased(int key);
+
+	/**
+	 * Handle a mouse click.
+	 *
+	 * @param x The x position of the click in pixels
+	 * @param y The y position of the click in pixels
+	 */
+	public void mouseClicked(int x, int y);
+}
@@ -0,0 +1,105 @@
+package game2D;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * InputQueue is a bounded, lock-free ring buffer of input events for exactly
+ * one producer thread (normally the AWT event thread) and one consumer thread
+ * (the game loop). The producer calls the InputHandler methods, which only
+ * store the event; the consumer calls drain() once at the start of each
+ * update to apply everything that has arrived since the last one. This way
+ * the game state is only ever changed on the game loop thread, and every
+ * update sees a consistent set of input.
+ * <p>
+ * Events are stored in preallocated arrays, so neither side allocates. If the
+ * queue is full the new event is dropped and counted rather than blocking the
+ * event thread.
+ */
+public class InputQueue implements InputHandler {
+
+	private static final int PRESS = 0;
+	private static final int RELEASE = 1;
+	private static final int CLICK = 2;
+
+	private final int mask;			// capacity - 1, used to wrap indices
+	private final int[] types;
+	private final int[] as;			// Key code, or x position for a click
+	private final int[] bs;			// y position for a click
+
+	private final AtomicLong head = new AtomicLong();	// Next event to read (consumer)
+	private final AtomicLong tail = new AtomicLong();	// Next slot to write (producer)
+	private long dropped;			// Events lost because the queue was full
+
+	/**
+	 * Create a queue that holds up to 'capacity' events, rounded up to a
+	 * power of two.
+	 *
+	 * @param capacity The minimum number of events the queue should hold
+	 */
+	public InputQueue(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		mask = size - 1;
+		types = new int[size];
+		as = new int[size];
+		bs = new int[size];
+	}
+
+	public void keyPressed(int key) { offer(PRESS, key, 0); }
+
+	public void keyReleased(int key) { offer(RELEASE, key, 0); }
+
+	public void mouseClicked(int x, int y) { offer(CLICK, x, y); }
+
+	/**
+	 * Store an event. Only the producer thread may call this.
+	 */
+	private void offer(int type, int a, int b)
+	{
+		long t = tail.get();
+		if (t - head.get() > mask)
+		{
+			dropped++;
+			return;
+		}
+		int i = (int)t & mask;
+		types[i] = type;
+		as[i] = a;
+		bs[i] = b;
+		// Publish the event; the ordered write makes the slot visible first
+		tail.lazySet(t + 1);
+	}
+
+	/**
+	 * Send every queued event to 'target' in the order they arrived. Only the
+	 * consumer thread may call this. Events that arrive while draining are
+	 * left for the next call.
+	 *
+	 * @param target The handler to apply the events to
+	 * @return The number of events applied
+	 */
+	public int drain(InputHandler target)
+	{
+		long h = head.get();
+		long t = tail.get();
+		for (long n=h; n<t; n++)
+		{
+			int i = (int)n & mask;
+			switch (types[i])
+			{
+				case PRESS: target.keyPressed(as[i]); break;
+				case RELEASE: target.keyReleased(as[i]); break;
+				case CLICK: target.mouseClicked(as[i], bs[i]); break;
+				default: break;
+			}
+		}
+		// Hand the slots back to the producer
+		head.lazySet(t);
+		return (int)(t - h);
+	}
+
+	/**
+	 * @return The number of events dropped because the queue was full
+	 */
+	public long getDropped() { return dropped; }
+}
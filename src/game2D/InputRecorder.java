@@ -0,0 +1,154 @@
+package game2D;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * InputRecorder sits between the input source and an InputHandler, passing
+ * every event on while writing it to a file together with the frame it
+ * arrived in. The recording also stores the seed the game used for its random
+ * numbers and, optionally, a hash of the game state at the end of every frame,
+ * so that InputReplayer can feed the same input back and check that the game
+ * followed exactly the same path.
+ * <p>
+ * The file is a small header followed by one record per event:
+ * a type byte, the number of frames since the previous record as a varint,
+ * then the event data (varints for key codes and positions, 8 bytes for a hash).
+ */
+public class InputRecorder implements InputHandler {
+
+	static final int MAGIC = 0x42525031;	// "BRP1"
+	static final int VERSION = 1;
+
+	static final int PRESS = 0;
+	static final int RELEASE = 1;
+	static final int CLICK = 2;
+	static final int HASH = 3;
+
+	private DataOutputStream out;
+	private InputHandler target;	// Where events are passed on to
+	private long frame;				// The frame events are currently recorded against
+	private long lastFrame;			// The frame of the previous record
+	private boolean failed;			// true once a write has failed
+
+	/**
+	 * Start recording to 'fileName'.
+	 *
+	 * @param fileName The file to write the recording to
+	 * @param seed The seed the game's random number generator was started with
+	 * @param target The handler to pass events on to
+	 * @throws IOException if the file cannot be created
+	 */
+	public InputRecorder(String fileName, long seed, InputHandler target) throws IOException
+	{
+		this.target = target;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeLong(seed);
+		frame = 0;
+		lastFrame = 0;
+	}
+
+	/**
+	 * Set the frame that the following events belong to. This is normally the
+	 * number of updates the game has run so far.
+	 *
+	 * @param f The current frame
+	 */
+	public synchronized void setFrame(long f)
+	{
+		frame = f;
+	}
+
+	/**
+	 * Record the state hash for the frame that has just been updated.
+	 *
+	 * @param f The frame that has just been updated
+	 * @param hash A hash of the game state after the update
+	 */
+	public synchronized void recordHash(long f, long hash)
+	{
+		begin(HASH, f);
+		try {
+			out.writeLong(hash);
+		}
+		catch (IOException e) { fail(e); }
+	}
+
+	public void keyPressed(int key)
+	{
+		record(PRESS, key, 0);
+		target.keyPressed(key);
+	}
+
+	public void keyReleased(int key)
+	{
+		record(RELEASE, key, 0);
+		target.keyReleased(key);
+	}
+
+	public void mouseClicked(int x, int y)
+	{
+		record(CLICK, x, y);
+		target.mouseClicked(x, y);
+	}
+
+	private synchronized void record(int type, int a, int b)
+	{
+		begin(type, frame);
+		writeVarInt(a);
+		if (type == CLICK) writeVarInt(b);
+	}
+
+	/**
+	 * Write the type and frame delta that start every record.
+	 */
+	private void begin(int type, long f)
+	{
+		try {
+			out.writeByte(type);
+			writeVarLong(out, Math.max(0, f - lastFrame));
+			lastFrame = Math.max(lastFrame, f);
+		}
+		catch (IOException e) { fail(e); }
+	}
+
+	private void writeVarInt(int v)
+	{
+		try {
+			// Zig-zag encode so that negative positions stay small
+			writeVarLong(out, ((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL);
+		}
+		catch (IOException e) { fail(e); }
+	}
+
+	static void writeVarLong(DataOutputStream out, long v) throws IOException
+	{
+		while ((v & ~0x7FL) != 0)
+		{
+			out.writeByte((int)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int)v);
+	}
+
+	private void fail(IOException e)
+	{
+		if (!failed) System.err.println("Failed to write input recording: " + e);
+		failed = true;
+	}
+
+	/**
+	 * Finish the recording and close the file.
+	 */
+	public synchronized void close()
+	{
+		try {
+			out.close();
+		}
+		catch (IOException e) { fail(e); }
+	}
+}
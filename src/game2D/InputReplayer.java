@@ -0,0 +1,196 @@
+package game2D;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * InputReplayer reads a recording made by InputRecorder and feeds the events
+ * back into an InputHandler at the frames they were recorded in. If the
+ * recording holds state hashes, checkFrame() compares them against the hashes
+ * of the replayed game and remembers the first frame where they differ.
+ */
+public class InputReplayer {
+
+	private long seed;
+	private int count;			// Number of records
+	private int[] types;
+	private long[] frames;
+	private long[] data;		// Key code, click x, or hash
+	private int[] data2;		// Click y
+	private int next;			// Index of the next record to use
+	private boolean hasHashes;
+	private long divergence = -1;	// First frame whose hash did not match
+
+	/**
+	 * Load a recording from 'fileName'.
+	 *
+	 * @param fileName The recording to load
+	 * @throws IOException if the file cannot be read or is not a recording
+	 */
+	public InputReplayer(String fileName) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+		try
+		{
+			if (in.readInt() != InputRecorder.MAGIC)
+				throw new IOException(fileName + " is not an input recording");
+			int version = in.readShort();
+			if (version != InputRecorder.VERSION)
+				throw new IOException(fileName + " has unsupported version " + version);
+			seed = in.readLong();
+
+			types = new int[256];
+			frames = new long[256];
+			data = new long[256];
+			data2 = new int[256];
+			long frame = 0;
+
+			int type;
+			while ((type = in.read()) >= 0)
+			{
+				if (count == types.length) grow();
+				frame += readVarLong(in);
+				types[count] = type;
+				frames[count] = frame;
+				switch (type)
+				{
+					case InputRecorder.PRESS:
+					case InputRecorder.RELEASE:
+						data[count] = readVarInt(in);
+						break;
+					case InputRecorder.CLICK:
+						data[count] = readVarInt(in);
+						data2[count] = readVarInt(in);
+						break;
+					case InputRecorder.HASH:
+						data[count] = in.readLong();
+						hasHashes = true;
+						break;
+					default:
+						throw new IOException(fileName + " has an unknown record type " + type);
+				}
+				count++;
+			}
+		}
+		catch (EOFException e)
+		{
+			// A recording cut short (e.g. the game was killed) is still usable
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private void grow()
+	{
+		int size = types.length * 2;
+		int[] t = new int[size];
+		long[] f = new long[size];
+		long[] d = new long[size];
+		int[] d2 = new int[size];
+		System.arraycopy(types, 0, t, 0, count);
+		System.arraycopy(frames, 0, f, 0, count);
+		System.arraycopy(data, 0, d, 0, count);
+		System.arraycopy(data2, 0, d2, 0, count);
+		types = t;
+		frames = f;
+		data = d;
+		data2 = d2;
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException
+	{
+		long v = 0;
+		int shift = 0;
+		int b;
+		do
+		{
+			b = in.readUnsignedByte();
+			v |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		}
+		while ((b & 0x80) != 0);
+		return v;
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException
+	{
+		int v = (int)readVarLong(in);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * @return The seed the recorded game started its random numbers with
+	 */
+	public long getSeed() { return seed; }
+
+	/**
+	 * @return true if the recording holds per-frame state hashes
+	 */
+	public boolean hasHashes() { return hasHashes; }
+
+	/**
+	 * Dispatch every input event recorded for frames up to and including 'frame'.
+	 *
+	 * @param frame The frame about to be updated
+	 * @param target The handler to send the events to
+	 */
+	public void apply(long frame, InputHandler target)
+	{
+		while (next < count && frames[next] <= frame)
+		{
+			if (types[next] == InputRecorder.HASH)
+			{
+				// Leave this frame's hash for checkFrame(), skip older ones
+				if (frames[next] == frame) break;
+				next++;
+				continue;
+			}
+			switch (types[next])
+			{
+				case InputRecorder.PRESS: target.keyPressed((int)data[next]); break;
+				case InputRecorder.RELEASE: target.keyReleased((int)data[next]); break;
+				case InputRecorder.CLICK: target.mouseClicked((int)data[next], data2[next]); break;
+				default: break;
+			}
+			next++;
+		}
+	}
+
+	/**
+	 * Compare the state hash of a replayed frame with the recorded one. Call
+	 * this after each update, with the same frame number passed to apply().
+	 *
+	 * @param frame The frame that has just been updated
+	 * @param hash The hash of the replayed game state
+	 * @return false if the recording has a different hash for this frame
+	 */
+	public boolean checkFrame(long frame, long hash)
+	{
+		boolean match = true;
+		while (next < count && frames[next] <= frame && types[next] == InputRecorder.HASH)
+		{
+			if (frames[next] == frame && data[next] != hash)
+			{
+				match = false;
+				if (divergence < 0) divergence = frame;
+			}
+			next++;
+		}
+		return match;
+	}
+
+	/**
+	 * @return The first frame whose hash did not match, or -1 if none has
+	 */
+	public long getDivergence() { return divergence; }
+
+	/**
+	 * @return true once every record has been used
+	 */
+	public boolean isFinished() { return next >= count; }
+}
@@ -0,0 +1,159 @@
+package game2D;
+
+import java.awt.event.KeyEvent;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * InputScript plays a scripted list of input events into an InputHandler,
+ * each one at a given tick (update number). Scripts are plain text files
+ * with one event per line, for example:
+
+// tick event arguments
+0 press SPACE
+1 release SPACE
+10 press RIGHT
+200 release RIGHT
+250 click 590 500
+
+ * Key names are the names of the KeyEvent VK_ constants without the
+ * VK_ prefix; a numeric key code may be used instead. Lines starting
+ * with // are ignored.
+ */
+public class InputScript {
+
+	private static final int PRESS = 0;
+	private static final int RELEASE = 1;
+	private static final int CLICK = 2;
+
+	private ArrayList<Event> events = new ArrayList<Event>();
+	private int next = 0;		// Index of the next event to dispatch
+
+	/**
+	 * Load a script from 'fileName'.
+	 *
+	 * @param fileName The path to the script file
+	 * @return The loaded script
+	 * @throws IOException if the file cannot be read or contains an invalid line
+	 */
+	public static InputScript load(String fileName) throws IOException
+	{
+		InputScript script = new InputScript();
+		BufferedReader in = new BufferedReader(new FileReader(fileName));
+		try
+		{
+			String line;
+			int lineNo = 0;
+			while ((line = in.readLine()) != null)
+			{
+				lineNo++;
+				String trimmed = line.trim();
+				if (trimmed.length() == 0 || trimmed.startsWith("//")) continue;
+
+				String[] vals = trimmed.split("\\s+");
+				try
+				{
+					long tick = Long.parseLong(vals[0]);
+					if (vals[1].equals("press"))
+						script.add(tick, PRESS, keyCode(vals[2]), 0);
+					else if (vals[1].equals("release"))
+						script.add(tick, RELEASE, keyCode(vals[2]), 0);
+					else if (vals[1].equals("click"))
+						script.add(tick, CLICK, Integer.parseInt(vals[2]), Integer.parseInt(vals[3]));
+					else
+						throw new IllegalArgumentException("unknown event '" + vals[1] + "'");
+				}
+				catch (RuntimeException e)
+				{
+					throw new IOException(fileName + ":" + lineNo + ": " + e.getMessage());
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		// Keep events at the same tick in file order
+		Collections.sort(script.events, new Comparator<Event>() {
+			public int compare(Event a, Event b) { return Long.compare(a.tick, b.tick); }
+		});
+		return script;
+	}
+
+	/**
+	 * Convert a key name such as "SPACE" or a number into a key code.
+	 */
+	private static int keyCode(String name)
+	{
+		if (Character.isDigit(name.charAt(0))) return Integer.parseInt(name);
+		try
+		{
+			return KeyEvent.class.getField("VK_" + name.toUpperCase()).getInt(null);
+		}
+		catch (Exception e)
+		{
+			throw new IllegalArgumentException("unknown key '" + name + "'");
+		}
+	}
+
+	private void add(long tick, int type, int a, int b)
+	{
+		events.add(new Event(tick, type, a, b));
+	}
+
+	/**
+	 * Dispatch every event scheduled at or before 'tick' that has not
+	 * already been dispatched.
+	 *
+	 * @param tick The current tick
+	 * @param target The handler to send the events to
+	 */
+	public void apply(long tick, InputHandler target)
+	{
+		while (next < events.size() && events.get(next).tick <= tick)
+		{
+			Event e = events.get(next++);
+			switch (e.type)
+			{
+				case PRESS: target.keyPressed(e.a); break;
+				case RELEASE: target.keyReleased(e.a); break;
+				case CLICK: target.mouseClicked(e.a, e.b); break;
+				default: break;
+			}
+		}
+	}
+
+	/**
+	 * @return true once every event has been dispatched
+	 */
+	public boolean isFinished() { return next >= events.size(); }
+
+	/**
+	 * Start the script again from the first event.
+	 */
+	public void rewind() { next = 0; }
+
+	/**
+	 * A single scripted event.
+	 */
+	private static class Event {
+
+		long tick;		// The tick to dispatch the event at
+		int type;		// PRESS, RELEASE or CLICK
+		int a;			// Key code, or x position for a click
+		int b;			// y position for a click
+
+		Event(long tick, int type, int a, int b)
+		{
+			this.tick = tick;
+			this.type = type;
+			this.a = a;
+			this.b = b;
+		}
+	}
+}
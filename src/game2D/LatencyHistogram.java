@@ -0,0 +1,144 @@
+package game2D;
+
+import java.io.PrintStream;
+
+/**
+ * LatencyHistogram counts durations (in nanoseconds) into a fixed set of
+ * buckets so that percentiles can be read back without storing every sample.
+ * Values below 64ns get a bucket each; above that, every power of two is
+ * split into 32 buckets, which keeps the error of any reported value within
+ * about 3%. Durations up to roughly 18 minutes are covered; anything longer
+ * is counted in the top bucket.
+ * <p>
+ * All memory is allocated up front, so record() never allocates. It is meant
+ * to be called from a single thread; other threads may read percentiles at
+ * any time, but the result may miss samples recorded at the same moment.
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR = 64;		// Values below this get a bucket each
+	private static final int SUB_BITS = 5;		// 2^SUB_BITS buckets per power of two
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int MAX_EXP = 40;		// Highest power of two tracked
+	private static final int BUCKETS = LINEAR + (MAX_EXP - 5) * SUB;
+
+	private final String name;
+	private final long[] counts = new long[BUCKETS];
+	private long count;			// Total number of values recorded
+	private long max;			// Largest value recorded
+	private long total;			// Sum of all values recorded
+
+	/**
+	 * Create an empty histogram.
+	 *
+	 * @param name A name used when the histogram is printed
+	 */
+	public LatencyHistogram(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * @return The name of this histogram
+	 */
+	public String getName() { return name; }
+
+	/**
+	 * Work out which bucket a value falls into.
+	 */
+	private static int bucketFor(long v)
+	{
+		if (v < LINEAR) return (int)Math.max(0, v);
+		int exp = 63 - Long.numberOfLeadingZeros(v);
+		if (exp > MAX_EXP) return BUCKETS - 1;
+		int sub = (int)(v >>> (exp - SUB_BITS)) - SUB;
+		return LINEAR + (exp - 6) * SUB + sub;
+	}
+
+	/**
+	 * Work out the largest value that falls into bucket 'i'.
+	 */
+	private static long bucketTop(int i)
+	{
+		if (i < LINEAR) return i;
+		int exp = (i - LINEAR) / SUB + 6;
+		long sub = (i - LINEAR) % SUB + SUB;
+		return ((sub + 1) << (exp - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Record a single duration.
+	 *
+	 * @param nanos The duration in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		counts[bucketFor(nanos)]++;
+		count++;
+		total += nanos;
+		if (nanos > max) max = nanos;
+	}
+
+	/**
+	 * Remove all recorded values.
+	 */
+	public void reset()
+	{
+		for (int i=0; i<BUCKETS; i++) counts[i] = 0;
+		count = 0;
+		total = 0;
+		max = 0;
+	}
+
+	/**
+	 * @return The number of values recorded
+	 */
+	public long getCount() { return count; }
+
+	/**
+	 * @return The largest value recorded in nanoseconds
+	 */
+	public long getMax() { return max; }
+
+	/**
+	 * @return The mean of the values recorded in nanoseconds
+	 */
+	public double getMean()
+	{
+		if (count == 0) return 0;
+		return (double)total / count;
+	}
+
+	/**
+	 * Get the value below which 'percentile' percent of the recorded values fall.
+	 *
+	 * @param percentile The percentile to get, e.g. 99.9
+	 * @return The value in nanoseconds, 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile)
+	{
+		if (count == 0) return 0;
+		long target = (long)Math.ceil(count * Math.min(100.0, percentile) / 100.0);
+		if (target < 1) target = 1;
+
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++)
+		{
+			seen += counts[i];
+			if (seen >= target) return Math.min(bucketTop(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Print a one line summary (in milliseconds) of this histogram to 'out'.
+	 *
+	 * @param out The stream to print to
+	 */
+	public void print(PrintStream out)
+	{
+		out.printf("%-24s n=%-8d p50=%8.3f p99=%8.3f p99.9=%8.3f max=%8.3f ms%n",
+				name, count, getPercentile(50) / 1e6, getPercentile(99) / 1e6,
+				getPercentile(99.9) / 1e6, max / 1e6);
+	}
+}
@@ -0,0 +1,509 @@
+package game2D;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A RenderQueue collects the draw commands for a frame and then issues them
+ * to a Graphics2D in one pass. Each command has a layer; lower layers are
+ * drawn first. Within a layer, commands are grouped by the image they draw
+ * from (the atlas page for atlas regions), so draws from the same source
+ * follow each other. The order of overlapping commands in the same layer is
+ * therefore not defined, and anything that must be drawn over something else
+ * should go in a higher layer.
+ * <p>
+ * Positions are in world coordinates. The camera offset is applied once, as a
+ * translation of the graphics object, and commands that fall outside the
+ * clip region are skipped before any drawing is done. If a view has been set
+ * with setView(), images and sprites outside it are not even queued. Text is
+ * drawn in screen coordinates so it can be used for messages that do not
+ * scroll.
+ * <p>
+ * Commands are reused from frame to frame; the internal arrays only grow.
+ */
+public class RenderQueue {
+
+	// Command types
+	private static final int IMAGE = 0;
+	private static final int TRANSFORMED = 1;
+	private static final int TEXT = 2;
+	private static final int TILEMAP = 3;
+
+	private Command[] commands = new Command[0];
+	private int count;						// Number of commands in use
+	private long[] order = new long[0];		// Sort keys: layer, source, then index
+	private boolean sorted;					// 'order' is sorted and no commands have been added since
+
+	// Small ids for each source image, so they can be packed into a sort key
+	private IdentityHashMap<Object,Integer> sources = new IdentityHashMap<Object,Integer>();
+
+	private int xoff, yoff;					// Camera offset added to world positions
+	private Rectangle view;					// World area to queue commands for, or null for all
+
+	// Images of text drawn by composite(), keyed by string, colour and font
+	private Map<String,BufferedImage> texts = new LinkedHashMap<String,BufferedImage>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String,BufferedImage> eldest) {
+			return size() > 64;
+		}
+	};
+	private Point offset = new Point();		// Reused for transformed copies
+
+	// Counts from the last call to draw(), plus commands not queued as outside the view
+	private int drawn, culled, batches;
+	private int rejected;
+
+	/**
+	 * Remove all commands, ready for the next frame.
+	 */
+	public void clear()
+	{
+		for (int i=0; i<count; i++)
+		{
+			commands[i].image = null;
+			commands[i].region = null;
+			commands[i].text = null;
+			commands[i].map = null;
+		}
+		count = 0;
+		rejected = 0;
+		sorted = false;
+
+		// Forget old source images now and then so they can be collected
+		if (sources.size() > 4096) sources.clear();
+	}
+
+	/**
+	 * Set the camera offset, which is added to every world position when
+	 * the queue is drawn.
+	 *
+	 * @param x The x offset in pixels
+	 * @param y The y offset in pixels
+	 */
+	public void setOffset(int x, int y)
+	{
+		xoff = x;
+		yoff = y;
+	}
+
+	/**
+	 * Set the part of the world that will be shown, usually from
+	 * Camera.getView(). Images and sprites entirely outside it are dropped
+	 * when they are added, so they cost nothing to sort or draw.
+	 *
+	 * @param r The view in world pixels, which is copied, or null to queue everything
+	 */
+	public void setView(Rectangle r)
+	{
+		if (r == null)
+			view = null;
+		else if (view == null)
+			view = new Rectangle(r);
+		else
+			view.setBounds(r);
+	}
+
+	/**
+	 * @return true (and count the command as culled) if the world
+	 * rectangle 'x,y,w,h' is entirely outside the view
+	 */
+	private boolean reject(int x, int y, int w, int h)
+	{
+		if (view == null || (x + w > view.x && x < view.x + view.width &&
+							 y + h > view.y && y < view.y + view.height)) return false;
+		rejected++;
+		return true;
+	}
+
+	/**
+	 * Get the next free command, growing the command array if needed.
+	 */
+	private Command next(int layer, int type, Object source)
+	{
+		if (count == commands.length)
+		{
+			Command[] grown = new Command[Math.max(64, count * 2)];
+			System.arraycopy(commands, 0, grown, 0, count);
+			for (int i=count; i<grown.length; i++) grown[i] = new Command();
+			commands = grown;
+			order = Arrays.copyOf(order, grown.length);
+		}
+
+		Integer id = 0;
+		if (source != null)
+		{
+			id = sources.get(source);
+			if (id == null)
+			{
+				id = sources.size() + 1;
+				sources.put(source, id);
+			}
+		}
+
+		Command c = commands[count];
+		c.type = type;
+		order[count] = ((long)(layer & 0xffff) << 48) | ((long)(id & 0xffffff) << 24) | count;
+		count++;
+		sorted = false;
+		return c;
+	}
+
+	/**
+	 * Add an image to draw at world position 'x,y'.
+	 *
+	 * @param layer The layer to draw in (0 to 65535)
+	 * @param img The image to draw
+	 * @param region The atlas region to draw it from, or null
+	 * @param x The world x position in pixels
+	 * @param y The world y position in pixels
+	 */
+	public void addImage(int layer, Image img, AtlasRegion region, float x, float y)
+	{
+		if (img == null) return;
+		int w = img.getWidth(null), h = img.getHeight(null);
+		if (reject((int)x, (int)y, w, h)) return;
+		Command c = next(layer, IMAGE, region != null ? region.getPage() : img);
+		c.image = img;
+		c.region = region;
+		c.x = (int)x;
+		c.y = (int)y;
+		c.w = w;
+		c.h = h;
+	}
+
+	/**
+	 * Add sprite 's' as it would be drawn by draw(), or by drawTransformed()
+	 * if 'transformed' is true, at its interpolated position. The sprite's
+	 * own offsets are ignored in favour of the queue's. Nothing is added if
+	 * the sprite is hidden.
+	 *
+	 * @param layer The layer to draw in (0 to 65535)
+	 * @param s The sprite to draw
+	 * @param transformed true to apply the sprite's scale and rotation
+	 */
+	public void addSprite(int layer, Sprite s, boolean transformed)
+	{
+		if (!s.isVisible()) return;
+		if (!transformed)
+		{
+			addImage(layer, s.getDrawImage(), s.getRegion(), s.getDrawX(), s.getDrawY());
+			return;
+		}
+
+		Image img = s.getImage();
+		if (img == null) return;
+		float fx = s.getDrawX(), fy = s.getDrawY();
+		double scale = s.getScale();
+
+		// Bounds that hold the image at any rotation about its centre
+		int w = img.getWidth(null), h = img.getHeight(null);
+		double r = Math.sqrt(w*w + h*h) / 2 * scale;
+		double cx = Math.round(fx) + w / 2 * scale;
+		double cy = Math.round(fy) + h / 2 * scale;
+		int bx = (int)Math.floor(cx - r) - 1;
+		int by = (int)Math.floor(cy - r) - 1;
+		int size = (int)Math.ceil(2 * r) + 2;
+		if (reject(bx, by, size, size)) return;
+
+		Command c = next(layer, TRANSFORMED, img);
+		c.image = img;
+		c.fx = fx;
+		c.fy = fy;
+		c.scale = scale;
+		c.rotation = Math.toRadians(s.getRotation());
+		c.x = bx;
+		c.y = by;
+		c.w = c.h = size;
+	}
+
+	/**
+	 * Add the tiles of 'map' that fall inside the view. If the map uses its
+	 * chunk cache, the map draws itself through the cache instead, since its
+	 * chunks are already batched.
+	 *
+	 * @param layer The layer to draw in (0 to 65535)
+	 * @param map The map to draw, with its top left at world position 0,0
+	 * @param view The area of the screen that will be drawn, in screen pixels
+	 */
+	public void addTileMap(int layer, TileMap map, Rectangle view)
+	{
+		if (map.isCaching())
+		{
+			Command c = next(layer, TILEMAP, map);
+			c.map = map;
+			c.x = 0;
+			c.y = 0;
+			c.w = map.getPixelWidth();
+			c.h = map.getPixelHeight();
+			return;
+		}
+
+		int tw = map.getTileWidth(), th = map.getTileHeight();
+		if (tw <= 0 || th <= 0) return;
+		int c0 = Math.max(0, Math.floorDiv(view.x - xoff, tw));
+		int r0 = Math.max(0, Math.floorDiv(view.y - yoff, th));
+		int c1 = Math.min(map.getMapWidth() - 1, Math.floorDiv(view.x + view.width - 1 - xoff, tw));
+		int r1 = Math.min(map.getMapHeight() - 1, Math.floorDiv(view.y + view.height - 1 - yoff, th));
+		for (int r=r0; r<=r1; r++)
+		{
+			for (int c=c0; c<=c1; c++)
+			{
+				Image img = map.getTileImage(c, r);
+				if (img != null) addImage(layer, img, map.getTileRegion(c, r), c*tw, r*th);
+			}
+		}
+	}
+
+	/**
+	 * Add text to draw at screen position 'x,y'. The camera offset is not applied.
+	 *
+	 * @param layer The layer to draw in (0 to 65535)
+	 * @param str The string to draw
+	 * @param x The x position in pixels
+	 * @param y The y position of the baseline in pixels
+	 * @param colour The colour to draw the text in
+	 */
+	public void addText(int layer, String str, int x, int y, Color colour)
+	{
+		Command c = next(layer, TEXT, null);
+		c.text = str;
+		c.x = x;
+		c.y = y;
+		c.colour = colour;
+	}
+
+	/**
+	 * Sort the commands into drawing order, unless they already are.
+	 */
+	private void sort()
+	{
+		if (sorted) return;
+		Arrays.sort(order, 0, count);
+		sorted = true;
+	}
+
+	/**
+	 * Sort the commands and draw those that are inside the clip region of
+	 * 'g'. The queue is left as it is, so it can be drawn again, e.g. once
+	 * for each dirty rectangle; it is only sorted again if commands have
+	 * been added since.
+	 *
+	 * @param g The graphics object to draw to
+	 */
+	public void draw(Graphics2D g)
+	{
+		sort();
+
+		// The view in world coordinates, for culling
+		Rectangle view = g.getClipBounds();
+		if (view != null) view.translate(-xoff, -yoff);
+
+		drawn = batches = 0;
+		culled = rejected;
+		Object lastSource = null;
+
+		g.translate(xoff, yoff);
+		for (int i=0; i<count; i++)
+		{
+			Command c = commands[(int)(order[i] & 0xffffff)];
+			if (c.type == TEXT)
+			{
+				g.setColor(c.colour);
+				g.drawString(c.text, c.x - xoff, c.y - yoff);
+				drawn++;
+				continue;
+			}
+
+			if (outside(c, view))
+			{
+				culled++;
+				continue;
+			}
+
+			Object source = (c.region != null) ? c.region.getPage() : (c.map != null) ? c.map : c.image;
+			if (source != lastSource) batches++;
+			lastSource = source;
+			drawn++;
+
+			switch (c.type)
+			{
+				case IMAGE:
+					if (c.region != null)
+						c.region.draw(g, c.x, c.y);
+					else
+						g.drawImage(c.image, c.x, c.y, null);
+					break;
+				case TRANSFORMED:
+					Sprite.drawImageTransformed(g, c.image, c.fx, c.fy, c.scale, c.rotation);
+					break;
+				case TILEMAP:
+					c.map.draw(g, 0, 0);
+					break;
+			}
+		}
+		g.translate(-xoff, -yoff);
+	}
+
+	/**
+	 * Sort the commands and add those that are inside the clip region of
+	 * 'g' to 'comp', which must already have been begun. Nothing is drawn to
+	 * 'g'; it only supplies the clip region and the font for text, which is
+	 * drawn into an image (kept for reuse) so it can be composited in order.
+	 * A tile map that uses its chunk cache is added tile by tile.
+	 *
+	 * @param comp The compositor to add the commands to
+	 * @param g The graphics object the frame is for
+	 */
+	public void composite(SoftwareCompositor comp, Graphics2D g)
+	{
+		sort();
+
+		Rectangle view = g.getClipBounds();
+		if (view != null) view.translate(-xoff, -yoff);
+
+		drawn = batches = 0;
+		culled = rejected;
+		for (int i=0; i<count; i++)
+		{
+			Command c = commands[(int)(order[i] & 0xffffff)];
+			if (c.type != TEXT && outside(c, view))
+			{
+				culled++;
+				continue;
+			}
+			drawn++;
+
+			switch (c.type)
+			{
+				case IMAGE:
+					if (c.region != null)
+						comp.add(c.region, c.x + xoff, c.y + yoff);
+					else
+						comp.add(c.image, c.x + xoff, c.y + yoff);
+					break;
+				case TRANSFORMED:
+					// A copy too big for the transform cache is made afresh
+					// each frame, so the compositor should not keep it either
+					TransformCache tc = Sprite.getTransformCache();
+					Image copy = tc.getCached(c.image, c.scale, c.rotation, offset);
+					if (copy != null)
+						comp.add(copy, Math.round(c.fx) + xoff + offset.x, Math.round(c.fy) + yoff + offset.y);
+					else if ((copy = tc.getUncached(c.image, c.scale, c.rotation, offset)) != null)
+						comp.addOnce(copy, Math.round(c.fx) + xoff + offset.x, Math.round(c.fy) + yoff + offset.y);
+					break;
+				case TEXT:
+					FontMetrics fm = g.getFontMetrics();
+					comp.add(textImage(c.text, c.colour, g), c.x, c.y - fm.getAscent());
+					break;
+				case TILEMAP:
+					compositeTiles(comp, c.map, view);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Add the tiles of 'map' that are inside 'view' (in world coordinates) to 'comp'.
+	 */
+	private void compositeTiles(SoftwareCompositor comp, TileMap map, Rectangle view)
+	{
+		int tw = map.getTileWidth(), th = map.getTileHeight();
+		int c0 = 0, r0 = 0, c1 = map.getMapWidth() - 1, r1 = map.getMapHeight() - 1;
+		if (view != null)
+		{
+			c0 = Math.max(c0, Math.floorDiv(view.x, tw));
+			r0 = Math.max(r0, Math.floorDiv(view.y, th));
+			c1 = Math.min(c1, Math.floorDiv(view.x + view.width - 1, tw));
+			r1 = Math.min(r1, Math.floorDiv(view.y + view.height - 1, th));
+		}
+		for (int r=r0; r<=r1; r++)
+		{
+			for (int c=c0; c<=c1; c++)
+			{
+				AtlasRegion region = map.getTileRegion(c, r);
+				if (region != null)
+					comp.add(region, c*tw + xoff, r*th + yoff);
+				else
+					comp.add(map.getTileImage(c, r), c*tw + xoff, r*th + yoff);
+			}
+		}
+	}
+
+	/**
+	 * Get an image of 'str' drawn in 'colour' with the font of 'g', from
+	 * the text cache if it has been drawn before.
+	 */
+	private Image textImage(String str, Color colour, Graphics2D g)
+	{
+		String key = str + '\0' + colour.getRGB() + '\0' + g.getFont();
+		BufferedImage img = texts.get(key);
+		if (img != null) return img;
+
+		FontMetrics fm = g.getFontMetrics();
+		img = new BufferedImage(Math.max(1, fm.stringWidth(str)), Math.max(1, fm.getHeight()),
+								BufferedImage.TYPE_INT_ARGB);
+		Graphics2D tg = img.createGraphics();
+		tg.setRenderingHints(g.getRenderingHints());
+		tg.setFont(g.getFont());
+		tg.setColor(colour);
+		tg.drawString(str, 0, fm.getAscent());
+		tg.dispose();
+		texts.put(key, img);
+		return img;
+	}
+
+	/**
+	 * @return true if command 'c' is entirely outside 'view'
+	 */
+	private static boolean outside(Command c, Rectangle view)
+	{
+		return view != null && (c.x + c.w <= view.x || c.x >= view.x + view.width ||
+								c.y + c.h <= view.y || c.y >= view.y + view.height);
+	}
+
+	/**
+	 * @return The number of commands in the queue
+	 */
+	public int size() { return count; }
+
+	/**
+	 * @return The number of commands drawn by the last call to draw()
+	 */
+	public int getDrawn() { return drawn; }
+
+	/**
+	 * @return The number of commands skipped as off screen by the last call to
+	 * draw(), including those not queued because they were outside the view
+	 */
+	public int getCulled() { return culled; }
+
+	/**
+	 * @return The number of runs of commands from the same source in the last call to draw()
+	 */
+	public int getBatches() { return batches; }
+
+	/**
+	 * A single draw command. Which fields are used depends on 'type'.
+	 */
+	private static class Command {
+
+		int type;
+		Image image;			// Image to draw
+		AtlasRegion region;		// Atlas region to draw instead of 'image', or null
+		String text;			// Text to draw
+		Color colour;			// Colour to draw text in
+		TileMap map;			// Map to draw through its chunk cache
+		int x, y, w, h;			// World bounds used for culling (text: screen position)
+		float fx, fy;			// Exact position for transformed images
+		double scale;
+		double rotation;		// Rotation in radians
+	}
+}
@@ -0,0 +1,285 @@
+package game2D;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+
+/**
+ * A RenderSnapshot is a compact copy of everything needed to draw one frame:
+ * a list of sprite and text draw commands in the order they should be drawn,
+ * plus the tile characters of the current TileMap. The simulation thread
+ * fills a snapshot after each update and the render thread draws from it,
+ * so drawing never reads the live game state.
+ * <p>
+ * Snapshots are reused from frame to frame; the internal arrays only grow.
+ */
+public class RenderSnapshot {
+
+	private Command[] commands;		// Draw commands, reused from frame to frame
+	private int count;				// Number of commands in use
+
+	private long time;				// System.nanoTime() when the snapshot was taken
+	private long step;				// Simulation step the snapshot covers (ms)
+	private int state;				// Game specific state, e.g. which screen to show
+	private boolean idle;			// Nothing will change until the game is woken
+	private Camera camera = new Camera(0, 0);	// Copy of the camera for this frame
+
+	private TileMap tileSource;		// The map the tile characters were copied from, only read by setTileMap()
+	private int tileRevision;		// The revision of tileSource that was copied
+	private char[] tiles;			// Tile characters in row order
+	private int mapWidth, mapHeight;	// Size of the copied map in tiles
+	private int tileWidth, tileHeight;	// Size of its tiles in pixels
+	private TileType[] tileTypes;	// Its tile types, or null if there is no tile layer
+	private AtlasRegion[] tileRegions;	// Its atlas regions, or null
+	private boolean tileCaching;	// Whether it draws through the chunk cache
+	private boolean tileOffHeap;	// Whether it keeps its tiles off the heap
+
+	/**
+	 * Create an empty snapshot.
+	 */
+	public RenderSnapshot()
+	{
+		commands = new Command[0];
+		count = 0;
+	}
+
+	/**
+	 * Remove all draw commands. The tile characters are kept so that they
+	 * only need copying again when the map changes.
+	 */
+	public void clear()
+	{
+		for (int i=0; i<count; i++)
+		{
+			commands[i].image = null;
+			commands[i].region = null;
+			commands[i].text = null;
+		}
+		count = 0;
+		state = 0;
+		idle = false;
+	}
+
+	/**
+	 * Get the next free command, growing the command array if needed.
+	 */
+	private Command next()
+	{
+		if (count == commands.length)
+		{
+			Command[] grown = new Command[Math.max(32, count * 2)];
+			System.arraycopy(commands, 0, grown, 0, count);
+			for (int i=count; i<grown.length; i++) grown[i] = new Command();
+			commands = grown;
+		}
+		return commands[count++];
+	}
+
+	/**
+	 * Record the time the snapshot was taken and the simulation step it covers.
+	 *
+	 * @param t The value of System.nanoTime() when the simulation state was captured
+	 * @param stepTime The simulation step in milliseconds
+	 */
+	public void setTime(long t, long stepTime)
+	{
+		time = t;
+		step = stepTime;
+	}
+
+	/**
+	 * @return The value of System.nanoTime() when the snapshot was taken
+	 */
+	public long getTime() { return time; }
+
+	/**
+	 * Work out how far between the previous and current sprite positions to
+	 * draw at time 'now'. This runs one simulation step behind, moving from
+	 * 0 when the snapshot is taken to 1 a step later.
+	 *
+	 * @param now The current value of System.nanoTime()
+	 * @return The interpolation alpha in the range 0 to 1
+	 */
+	public float getAlpha(long now)
+	{
+		if (step <= 0) return 1.0f;
+		float a = (float)(now - time) / (step * 1000000L);
+		return Math.max(0.0f, Math.min(1.0f, a));
+	}
+
+	/**
+	 * @param s A game specific value to pass to the render thread
+	 */
+	public void setState(int s) { state = s; }
+
+	/**
+	 * @return The game specific value set with setState()
+	 */
+	public int getState() { return state; }
+
+	/**
+	 * @param on true if the game was idle (see GameCore.isIdle()) when the
+	 * snapshot was taken
+	 */
+	public void setIdle(boolean on) { idle = on; }
+
+	/**
+	 * @return true if the game was idle when the snapshot was taken, so the
+	 * render thread can sleep without reading the game state itself
+	 */
+	public boolean isIdle() { return idle; }
+
+	/**
+	 * @return The snapshot's own camera, for the game to copy its camera
+	 * into with Camera.set() and for the render thread to draw with
+	 */
+	public Camera getCamera() { return camera; }
+
+	/**
+	 * Add a command to draw sprite 's' with its current image (mirrored if
+	 * it is flipped) and position. Nothing is added if the sprite is hidden.
+	 *
+	 * @param s The sprite to draw
+	 * @param withTransform true to draw it as drawTransformed() would
+	 */
+	public void addSprite(Sprite s, boolean withTransform)
+	{
+		if (!s.isVisible()) return;
+		Command c = next();
+		c.image = s.getDrawImage();
+		c.region = s.getRegion();
+		c.text = null;
+		c.prevX = s.getPreviousX();
+		c.prevY = s.getPreviousY();
+		c.x = s.getX();
+		c.y = s.getY();
+		c.transformed = withTransform;
+		c.scale = s.getScale();
+		c.rotation = Math.toRadians(s.getRotation());
+	}
+
+	/**
+	 * Add a command to draw 'str' at screen position 'x,y'.
+	 *
+	 * @param str The string to draw
+	 * @param x The x position in pixels
+	 * @param y The y position of the baseline in pixels
+	 * @param colour The colour to draw the text in
+	 */
+	public void addText(String str, int x, int y, Color colour)
+	{
+		Command c = next();
+		c.image = null;
+		c.text = str;
+		c.x = x;
+		c.y = y;
+		c.colour = colour;
+	}
+
+	/**
+	 * Capture the tile characters and layout of 'map'. The characters are
+	 * only copied if the map or its revision differ from the last capture
+	 * into this snapshot. Call this on the thread that owns 'map'.
+	 *
+	 * @param map The map to capture, or null for no tile layer
+	 */
+	public void setTileMap(TileMap map)
+	{
+		if (map == null)
+		{
+			tileSource = null;
+			tileTypes = null;
+			tileRegions = null;
+			return;
+		}
+
+		tileTypes = map.getTypes();
+		tileRegions = map.getRegions();
+		tileCaching = map.isCaching();
+		tileOffHeap = map.isOffHeap();
+		if (map == tileSource && map.getRevision() == tileRevision) return;
+
+		mapWidth = map.getMapWidth();
+		mapHeight = map.getMapHeight();
+		tileWidth = map.getTileWidth();
+		tileHeight = map.getTileHeight();
+		int size = mapWidth * mapHeight;
+		if (tiles == null || tiles.length < size) tiles = new char[size];
+		map.copyTiles(tiles);
+		tileSource = map;
+		tileRevision = map.getRevision();
+	}
+
+	/**
+	 * Bring a render-side copy of the tile map up to date with this snapshot.
+	 * A new mirror is created from the layout captured by setTileMap() when
+	 * the size, tile types or atlas regions differ, otherwise only the tiles
+	 * that differ are changed. The captured map itself is never read.
+	 *
+	 * @param mirror The mirror returned by the previous call, or null
+	 * @return The up to date mirror, or null if the snapshot has no tile map
+	 */
+	public TileMap syncTiles(TileMap mirror)
+	{
+		if (tileTypes == null) return null;
+		if (mirror == null || mirror.getMapWidth() != mapWidth || mirror.getMapHeight() != mapHeight ||
+			mirror.getTileWidth() != tileWidth || mirror.getTileHeight() != tileHeight ||
+			mirror.isOffHeap() != tileOffHeap || !mirror.drawsWith(tileTypes, tileRegions))
+		{
+			mirror = TileMap.createMirror(mapWidth, mapHeight, tileWidth, tileHeight,
+										  tileTypes, tileRegions, tileCaching, tileOffHeap);
+		}
+		else if (mirror.isCaching() != tileCaching)
+		{
+			mirror.setCaching(tileCaching);
+		}
+		mirror.setTiles(tiles);
+		return mirror;
+	}
+
+	/**
+	 * Draw every sprite and text command in the order they were added.
+	 *
+	 * @param g The graphics object to draw to
+	 * @param xoff The x offset to shift sprites by
+	 * @param yoff The y offset to shift sprites by
+	 * @param alpha How far between the previous and current positions to draw
+	 */
+	public void draw(Graphics2D g, int xoff, int yoff, float alpha)
+	{
+		for (int i=0; i<count; i++)
+		{
+			Command c = commands[i];
+			if (c.text != null)
+			{
+				g.setColor(c.colour);
+				g.drawString(c.text, (int)c.x, (int)c.y);
+				continue;
+			}
+
+			float x = c.prevX + (c.x - c.prevX) * alpha + xoff;
+			float y = c.prevY + (c.y - c.prevY) * alpha + yoff;
+			if (c.transformed)
+				Sprite.drawImageTransformed(g, c.image, x, y, c.scale, c.rotation);
+			else
+				Sprite.drawImage(g, c.image, c.region, x, y);
+		}
+	}
+
+	/**
+	 * A single sprite or text draw command. A command draws text if 'text'
+	 * is not null, otherwise it draws 'image'.
+	 */
+	private static class Command {
+
+		Image image;			// Sprite image for the captured frame
+		AtlasRegion region;		// Atlas region of 'image', or null
+		String text;			// Text to draw
+		Color colour;			// Colour to draw text in
+		float prevX, prevY;		// Sprite position before the last update
+		float x, y;				// Position after the last update
+		boolean transformed;	// Apply scale and rotation
+		double scale;
+		double rotation;		// Rotation in radians
+	}
+}
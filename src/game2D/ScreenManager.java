@@ -112,6 +112,15 @@ public class ScreenManager {
         The display uses a BufferStrategy with 2 buffers.
     */
     public void setFullScreen(DisplayMode displayMode) {
+        setFullScreen(displayMode, 2);
+    }
+
+
+    /**
+        Enters full screen mode as setFullScreen(DisplayMode) does,
+        but with a BufferStrategy of 'numBuffers' buffers.
+    */
+    public void setFullScreen(DisplayMode displayMode, final int numBuffers) {
         final JFrame frame = new JFrame();
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setUndecorated(true);
@@ -135,7 +144,7 @@ public class ScreenManager {
         try {
             EventQueue.invokeAndWait(new Runnable() {
                 public void run() {
-                    frame.createBufferStrategy(2);
+                    frame.createBufferStrategy(numBuffers);
                 }
             });
         }
@@ -247,11 +256,8 @@ public class ScreenManager {
         int transparancy)
     {
         Window window = device.getFullScreenWindow();
-        if (window != null) {
-            GraphicsConfiguration gc =
-                window.getGraphicsConfiguration();
-            return gc.createCompatibleImage(w, h, transparancy);
-        }
-        return null;
+        GraphicsConfiguration gc = (window != null) ?
+            window.getGraphicsConfiguration() : device.getDefaultConfiguration();
+        return gc.createCompatibleImage(w, h, transparancy);
     }
 }
@@ -0,0 +1,343 @@
+package game2D;
+
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * SoftwareCompositor draws images straight into the int pixels of an
+ * INT_RGB BufferedImage, blending them by their alpha, instead of going
+ * through Graphics2D. Blits are collected with add() between begin() and
+ * finish(); finish() then splits the screen into horizontal bands and
+ * renders them in parallel on a fork-join pool. Each band runs through every
+ * blit in order and only touches its own rows, so no two threads ever write
+ * the same pixel and the result matches drawing the blits one after another.
+ * <p>
+ * The pixels of each source image are read once and kept, premultiplied by
+ * their alpha, in a cache bounded by its total number of pixels; when it is
+ * full the sources drawn least recently are dropped. Images added with
+ * addOnce() are only read for the current frame. Images must not change
+ * after they have been added.
+ */
+public class SoftwareCompositor {
+
+	// Bands per pool thread, so a thread that finishes early can take another
+	private static final int BANDS_PER_THREAD = 4;
+
+	// Most source pixels to keep, over all the cached images
+	private static final long MAX_PIXELS = 4 << 20;
+
+	private final ForkJoinPool pool;
+	private BufferedImage image;		// The image being drawn into
+	private int[] pixels;				// The pixels of 'image'
+	private int width, height;
+
+	private Blit[] blits = new Blit[0];
+	private int count;					// Number of blits in use
+	private Rectangle clip;				// Area of the image to draw, in pixels
+	private int background;				// RGB colour to clear 'clip' to
+
+	// Converted source images, least recently drawn first
+	private LinkedHashMap<Image,Pixels> sources = new LinkedHashMap<Image,Pixels>(16, 0.75f, true);
+	private long sourcePixels;			// Pixels held in 'sources'
+
+	/**
+	 * Create a compositor with its own image.
+	 *
+	 * @param w The width of the image in pixels
+	 * @param h The height of the image in pixels
+	 * @param pool The pool to render bands on, or null for the common pool
+	 */
+	public SoftwareCompositor(int w, int h, ForkJoinPool pool)
+	{
+		this.pool = (pool != null) ? pool : ForkJoinPool.commonPool();
+		setSize(w, h);
+	}
+
+	/**
+	 * Change the size of the image, replacing it with a new one.
+	 *
+	 * @param w The width of the image in pixels
+	 * @param h The height of the image in pixels
+	 */
+	public void setSize(int w, int h)
+	{
+		width = Math.max(1, w);
+		height = Math.max(1, h);
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * @return The image the compositor draws into
+	 */
+	public BufferedImage getImage() { return image; }
+
+	/**
+	 * @return The pool bands are rendered on
+	 */
+	public ForkJoinPool getPool() { return pool; }
+
+	/**
+	 * Start a new frame. Nothing is drawn until finish() is called.
+	 *
+	 * @param area The part of the image to draw, or null for all of it
+	 * @param rgb The colour to clear 'area' to before the blits are drawn
+	 */
+	public void begin(Rectangle area, int rgb)
+	{
+		for (int i=0; i<count; i++) blits[i].src = null;
+		count = 0;
+		clip = new Rectangle(0, 0, width, height);
+		if (area != null) clip = clip.intersection(area);
+		background = rgb & 0xffffff;
+	}
+
+	/**
+	 * Add 'img' to draw with its top left at 'x,y'.
+	 *
+	 * @param img The image to draw
+	 * @param x The x position in pixels
+	 * @param y The y position in pixels
+	 */
+	public void add(Image img, int x, int y)
+	{
+		if (img == null) return;
+		add(img, 0, 0, img.getWidth(null), img.getHeight(null), x, y, true);
+	}
+
+	/**
+	 * Add 'img' to draw with its top left at 'x,y' without keeping its
+	 * pixels after this frame, e.g. for a copy that is made afresh each
+	 * frame and will not be drawn again.
+	 *
+	 * @param img The image to draw
+	 * @param x The x position in pixels
+	 * @param y The y position in pixels
+	 */
+	public void addOnce(Image img, int x, int y)
+	{
+		if (img == null) return;
+		add(img, 0, 0, img.getWidth(null), img.getHeight(null), x, y, false);
+	}
+
+	/**
+	 * Add atlas region 'r' to draw with its top left at 'x,y'.
+	 *
+	 * @param r The region to draw
+	 * @param x The x position in pixels
+	 * @param y The y position in pixels
+	 */
+	public void add(AtlasRegion r, int x, int y)
+	{
+		add(r.getPage(), r.getX(), r.getY(), r.getWidth(), r.getHeight(), x, y, true);
+	}
+
+	/**
+	 * Add the 'w' x 'h' rectangle at 'sx,sy' of 'img' to draw at 'dx,dy',
+	 * keeping the pixels of 'img' in the cache if 'keep' is true. Blits that
+	 * fall outside the area passed to begin() are dropped here.
+	 */
+	private void add(Image img, int sx, int sy, int w, int h, int dx, int dy, boolean keep)
+	{
+		if (w <= 0 || h <= 0) return;
+		if (dx + w <= clip.x || dx >= clip.x + clip.width ||
+			dy + h <= clip.y || dy >= clip.y + clip.height) return;
+
+		Pixels src = keep ? sources.get(img) : null;
+		if (src == null)
+		{
+			src = new Pixels(img);
+			if (keep) keep(img, src);
+		}
+
+		if (count == blits.length)
+		{
+			Blit[] grown = new Blit[Math.max(64, count * 2)];
+			System.arraycopy(blits, 0, grown, 0, count);
+			for (int i=count; i<grown.length; i++) grown[i] = new Blit();
+			blits = grown;
+		}
+		Blit b = blits[count++];
+		b.src = src;
+		b.sx = sx;
+		b.sy = sy;
+		b.w = w;
+		b.h = h;
+		b.dx = dx;
+		b.dy = dy;
+	}
+
+	/**
+	 * Cache the pixels 'src' of 'img', dropping the sources drawn least
+	 * recently until the cache is back within MAX_PIXELS. Sources bigger
+	 * than the whole budget are not kept.
+	 */
+	private void keep(Image img, Pixels src)
+	{
+		long size = src.argb.length;
+		if (size > MAX_PIXELS) return;
+		sources.put(img, src);
+		sourcePixels += size;
+
+		Iterator<Pixels> it = sources.values().iterator();
+		while (sourcePixels > MAX_PIXELS && it.hasNext())
+		{
+			Pixels old = it.next();
+			if (old == src) break;
+			sourcePixels -= old.argb.length;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Draw every blit added since begin() into the image, in parallel bands.
+	 */
+	public void finish()
+	{
+		if (clip.isEmpty()) return;
+		int bands = Math.min(clip.height, pool.getParallelism() * BANDS_PER_THREAD);
+		pool.invoke(new BandTask(0, bands, bands));
+	}
+
+	/**
+	 * Renders bands 'from' to 'to' of 'bands', splitting the range in half
+	 * until there is a single band left.
+	 */
+	@SuppressWarnings("serial")
+	private class BandTask extends RecursiveAction {
+
+		int from, to, bands;
+
+		BandTask(int from, int to, int bands)
+		{
+			this.from = from;
+			this.to = to;
+			this.bands = bands;
+		}
+
+		protected void compute()
+		{
+			if (to - from > 1)
+			{
+				int mid = (from + to) >>> 1;
+				invokeAll(new BandTask(from, mid, bands), new BandTask(mid, to, bands));
+				return;
+			}
+			int y0 = clip.y + (int)((long)clip.height * from / bands);
+			int y1 = clip.y + (int)((long)clip.height * to / bands);
+			renderBand(y0, y1);
+		}
+	}
+
+	/**
+	 * Clear and draw rows 'y0' to 'y1' (exclusive) of the clip area.
+	 */
+	private void renderBand(int y0, int y1)
+	{
+		int x0 = clip.x;
+		int x1 = clip.x + clip.width;
+		for (int y=y0; y<y1; y++)
+		{
+			int row = y * width;
+			for (int x=x0; x<x1; x++) pixels[row + x] = background;
+		}
+
+		for (int i=0; i<count; i++)
+		{
+			Blit b = blits[i];
+
+			// Part of the blit inside this band and the clip area
+			int top = Math.max(y0, b.dy);
+			int bottom = Math.min(y1, b.dy + b.h);
+			int left = Math.max(x0, b.dx);
+			int right = Math.min(x1, b.dx + b.w);
+			if (top >= bottom || left >= right) continue;
+
+			Pixels src = b.src;
+			int n = right - left;
+			for (int y=top; y<bottom; y++)
+			{
+				int s = (b.sy + y - b.dy) * src.width + b.sx + left - b.dx;
+				int d = y * width + left;
+				if (src.opaque)
+				{
+					System.arraycopy(src.argb, s, pixels, d, n);
+					continue;
+				}
+				for (int k=0; k<n; k++)
+				{
+					int p = src.argb[s + k];
+					int a = p >>> 24;
+					if (a == 0) continue;
+					if (a == 255)
+					{
+						pixels[d + k] = p;
+						continue;
+					}
+					// src + dst * (1 - alpha), with 'p' already premultiplied
+					int q = pixels[d + k];
+					int inv = 255 - a;
+					int rb = (q & 0xff00ff) * inv;
+					int g = (q & 0x00ff00) * inv;
+					rb = ((rb + 0x800080 + ((rb >>> 8) & 0xff00ff)) >>> 8) & 0xff00ff;
+					g = ((g + 0x008000 + ((g >>> 8) & 0x00ff00)) >>> 8) & 0x00ff00;
+					pixels[d + k] = (p & 0xffffff) + rb + g;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The pixels of a source image, premultiplied by alpha.
+	 */
+	private static class Pixels {
+
+		int[] argb;
+		int width;
+		boolean opaque;		// true if every pixel has an alpha of 255
+
+		Pixels(Image img)
+		{
+			int w = img.getWidth(null);
+			int h = img.getHeight(null);
+			BufferedImage b = (img instanceof BufferedImage) ? (BufferedImage)img
+								: CompatibleImages.toARGB(img, 0, 0, w, h);
+			argb = b.getRGB(0, 0, w, h, null, 0, w);
+			width = w;
+			opaque = true;
+			for (int i=0; i<argb.length; i++)
+			{
+				int p = argb[i];
+				int a = p >>> 24;
+				if (a == 255) continue;
+				opaque = false;
+				if (a == 0)
+				{
+					argb[i] = 0;
+					continue;
+				}
+				int r = ((p >>> 16) & 0xff) * a / 255;
+				int g = ((p >>> 8) & 0xff) * a / 255;
+				int bl = (p & 0xff) * a / 255;
+				argb[i] = (a << 24) | (r << 16) | (g << 8) | bl;
+			}
+		}
+	}
+
+	/**
+	 * One rectangle of a source image to draw.
+	 */
+	private static class Blit {
+
+		Pixels src;
+		int sx, sy;		// Top left of the rectangle in the source
+		int w, h;
+		int dx, dy;		// Where to draw it
+	}
+}
@@ -5,7 +5,23 @@ import javax.sound.sampled.*;
 
 public class Sound extends Thread {
 
+	/**
+	 * The decoded samples of a sound file, so a sound that is played often
+	 * only has to be read and decoded once.
+	 */
+	public static class Samples {
+		final AudioFormat format;
+		final byte[] data;
+
+		Samples(AudioFormat format, byte[] data)
+		{
+			this.format = format;
+			this.data = data;
+		}
+	}
+
 	String filename;	// The name of the file to play
+	Samples samples;	// The decoded sound to play instead, or null
 	boolean finished;	// A flag showing that the thread has finished
 	
 	public Sound(String fname) {
@@ -13,6 +29,37 @@ public class Sound extends Thread {
 		finished = false;
 	}
 
+	/**
+	 * Create a sound that plays samples already decoded by decode().
+	 */
+	public Sound(Samples s) {
+		samples = s;
+		finished = false;
+	}
+
+	/**
+	 * Read and decode the sound in 'fname'. This may be called from any
+	 * thread, e.g. by an AssetManager.
+	 *
+	 * @param fname The name of the file to decode
+	 * @return The decoded samples
+	 * @throws IOException if the file could not be read or is not a sound file
+	 */
+	public static Samples decode(String fname) throws IOException {
+		try {
+			AudioInputStream stream = AudioSystem.getAudioInputStream(new File(fname));
+			try {
+				return new Samples(stream.getFormat(), stream.readAllBytes());
+			}
+			finally {
+				stream.close();
+			}
+		}
+		catch (UnsupportedAudioFileException e) {
+			throw new IOException(e);
+		}
+	}
+
 	/**
 	 * run will play the actual sound but you should not call it directly.
 	 * You need to call the 'start' method of your sound object (inherited
@@ -22,14 +69,22 @@ public class Sound extends Thread {
 	 */
 	public void run() {
 		try {
-			File file = new File(filename);
-			AudioInputStream stream = AudioSystem.getAudioInputStream(file);
-			AudioFormat	format = stream.getFormat();
-			FadeFilterStream filtered = new FadeFilterStream(stream);
-			AudioInputStream f = new AudioInputStream(filtered,format,stream.getFrameLength());
-			DataLine.Info info = new DataLine.Info(Clip.class, format);
-			Clip clip = (Clip)AudioSystem.getLine(info);
-			clip.open(stream);
+			Clip clip;
+			if (samples != null) {
+				DataLine.Info info = new DataLine.Info(Clip.class, samples.format);
+				clip = (Clip)AudioSystem.getLine(info);
+				clip.open(samples.format, samples.data, 0, samples.data.length);
+			}
+			else {
+				File file = new File(filename);
+				AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+				AudioFormat	format = stream.getFormat();
+				FadeFilterStream filtered = new FadeFilterStream(stream);
+				AudioInputStream f = new AudioInputStream(filtered,format,stream.getFrameLength());
+				DataLine.Info info = new DataLine.Info(Clip.class, format);
+				clip = (Clip)AudioSystem.getLine(info);
+				clip.open(stream);
+			}
 			clip.start();
 			Thread.sleep(100);
 			while (clip.isRunning()) { Thread.sleep(100); }
@@ -19,6 +19,14 @@ public class Sprite {
     private float x;
     private float y;
 
+    // Position before the last update, used to interpolate drawing
+    private float prevX;
+    private float prevY;
+    // How far (0 to 1) to draw between the previous and current position
+    private float alpha=1.0f;
+    // True once update has recorded a previous position
+    private boolean updated=false;
+
     // Velocity (pixels per millisecond)
     private float dx;
     private float dy;
@@ -30,6 +38,8 @@ public class Sprite {
 
     // The scale to draw the sprite at where 1 equals normal size
     private double scale;
+    // Scaled and rotated copies of frames, shared by all sprites (4M pixels, 16MB)
+    private static TransformCache transforms = new TransformCache(4 << 20);
     // The rotation to apply to the sprite image
     private double rotation;
 
@@ -137,6 +147,9 @@ public class Sprite {
         @param elapsedTime time that has elapsed since the last call to update
     */
     public void update(long elapsedTime) {
+    	prevX = x;
+    	prevY = y;
+    	updated = true;
     	if (!render) return;
         x += dx * elapsedTime;
         y += dy * elapsedTime;
@@ -164,17 +177,23 @@ public class Sprite {
     }
 
     /**
-        Sets this Sprite's current x position.
+        Sets this Sprite's current x position. The sprite is moved
+        there rather than drawn moving there, so the position before
+        the last update is set to it too.
     */
     public void setX(float x) {
         this.x = x;
+        prevX = x;
     }
 
     /**
-        Sets this Sprite's current y position.
+        Sets this Sprite's current y position. The sprite is moved
+        there rather than drawn moving there, so the position before
+        the last update is set to it too.
     */
     public void setY(float y) {
         this.y = y;
+        prevY = y;
     }
 
     public void shiftX(float shift)
@@ -310,15 +329,7 @@ public class Sprite {
     public void draw(Graphics2D g)
     {
     	if (!render) return;
-    	if (!flipped) {
-    	    g.drawImage(getImage(),(int)x+xoff,(int)y+yoff,null);
-        } else {
-            AffineTransform transform = new AffineTransform();
-            transform.translate(Math.round(x)+xoff + 40,Math.round(y)+yoff);
-            transform.scale(-1.0f,1.0f);
-            // Apply transform to the image and draw it
-            g.drawImage(getImage(),transform,null);
-        }
+    	drawImage(g, getDrawImage(), getRegion(), getDrawX()+xoff, getDrawY()+yoff);
     }
 
 	/**
@@ -331,13 +342,81 @@ public class Sprite {
     public void drawTransformed(Graphics2D g)
     {
     	if (!render) return;
+    	drawImageTransformed(g, getImage(), getDrawX()+xoff, getDrawY()+yoff, scale, rotation);
+    }
+
+	/**
+		Draws 'img' at 'x,y' the way draw() draws a sprite. If 'region'
+		is not null the image is drawn from the atlas region instead.
+	*/
+    static void drawImage(Graphics2D g, Image img, AtlasRegion region, float x, float y)
+    {
+    	if (region != null)
+    		region.draw(g,(int)x,(int)y);
+    	else
+    	    g.drawImage(img,(int)x,(int)y,null);
+    }
+
+	/**
+		Draws 'img' at 'x,y' the way drawTransformed() draws a sprite,
+		with 'rotation' given in radians. The transformed image comes
+		from the shared transform cache.
+	*/
+    static void drawImageTransformed(Graphics2D g, Image img, float x, float y, double scale, double rotation)
+    {
+		transforms.draw(g, img, x, y, scale, rotation);
+    }
+
+	/**
+		Gets the cache of scaled and rotated frames shared by every
+		sprite's drawTransformed().
+	*/
+    public static TransformCache getTransformCache() { return transforms; }
 
+	/**
+		Works out the screen area the sprite covers when drawn with
+		draw(), or with drawTransformed() if 'transformed' is true,
+		using its current offsets and interpolation. The area is a
+		pixel larger than the image on each side, so that rounding
+		of the draw position never leaves a pixel outside it.
+		
+		@param r The rectangle to set to the area
+		@param transformed true for the area covered by drawTransformed()
+	*/
+    public void getDrawBounds(Rectangle r, boolean transformed)
+    {
+    	Image img = transformed ? getImage() : getDrawImage();
+    	int w = img.getWidth(null);
+    	int h = img.getHeight(null);
+    	float x = getDrawX()+xoff;
+    	float y = getDrawY()+yoff;
+    	if (!transformed) {
+    		r.setBounds((int)Math.floor(x)-1, (int)Math.floor(y)-1, w+2, h+2);
+    		return;
+    	}
 		AffineTransform transform = new AffineTransform();
-		transform.translate(Math.round(x)+xoff,Math.round(y)+yoff);
+		transform.translate(Math.round(x),Math.round(y));
 		transform.scale(scale,scale);
-		transform.rotate(rotation,getImage().getWidth(null)/2,getImage().getHeight(null)/2);
-		// Apply transform to the image and draw it
-		g.drawImage(getImage(),transform,null);
+		transform.rotate(rotation,w/2,h/2);
+		Rectangle b = transform.createTransformedShape(new Rectangle(0,0,w,h)).getBounds();
+		r.setBounds(b.x-1, b.y-1, b.width+2, b.height+2);
+    }
+
+	/**
+		Gets the image draw() will draw, which is the current image
+		mirrored horizontally when the sprite is flipped.
+	*/
+    public Image getDrawImage() {
+    	return flipped ? anim.getMirroredImage() : anim.getImage();
+    }
+
+	/**
+		Gets the atlas region draw() will draw from, or null if the
+		sprite's animation is not drawn from an atlas or the sprite
+		is flipped.
+	*/
+    public AtlasRegion getRegion() {
+    	return flipped ? null : anim.getRegion();
     }
 
 	/**
@@ -365,6 +444,52 @@ public class Sprite {
     	xoff = x;
     	yoff = y;
     }
+
+	/**
+		Set how far between its previous and current position the
+		sprite should be drawn, where 0 is the position before the
+		last update and 1 (the default) is the current position.
+	*/
+    public void setInterpolation(float a)
+    {
+    	alpha = a;
+    }
+
+	/**
+		Gets the x position of the sprite before its last update.
+	*/
+    public float getPreviousX()
+    {
+    	return updated ? prevX : x;
+    }
+
+	/**
+		Gets the y position of the sprite before its last update.
+	*/
+    public float getPreviousY()
+    {
+    	return updated ? prevY : y;
+    }
+
+	/**
+		Gets the x position the sprite will be drawn at, before
+		offsets are applied.
+	*/
+    public float getDrawX()
+    {
+    	if (!updated) return x;
+    	return prevX + (x - prevX) * alpha;
+    }
+
+	/**
+		Gets the y position the sprite will be drawn at, before
+		offsets are applied.
+	*/
+    public float getDrawY()
+    {
+    	if (!updated) return y;
+    	return prevY + (y - prevY) * alpha;
+    }
     
 
 }
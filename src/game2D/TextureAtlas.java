@@ -0,0 +1,320 @@
+package game2D;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A TextureAtlas packs many small images into a few large pages so they can
+ * all be drawn from the same source image. Images are added by name with
+ * add() and are placed by pack(), which sorts them by height and fills each
+ * page one shelf (row) at a time. Each packed image is then looked up as an
+ * AtlasRegion with getRegion().
+ * <p>
+ * An atlas can be saved to a folder (one PNG per page plus an index file)
+ * and loaded back on the next run. Each region keeps a checksum of the pixels
+ * it was packed from, so adding an image that has not changed since the atlas
+ * was saved does nothing, and pack() only has work to do when an image is new
+ * or has changed.
+ */
+public class TextureAtlas {
+
+	public static final int DEFAULT_PAGE_SIZE = 1024;
+
+	private static final String INDEX_FILE = "atlas.txt";
+
+	private int pageSize;			// Width and height of each page in pixels
+	private int padding = 1;		// Gap left around each region in pixels
+	private ArrayList<BufferedImage> pages = new ArrayList<BufferedImage>();
+	private Map<String,AtlasRegion> regions = new LinkedHashMap<String,AtlasRegion>();
+	private Map<String,Entry> pending = new LinkedHashMap<String,Entry>();
+
+	/**
+	 * Create an empty atlas.
+	 *
+	 * @param pageSize The width and height of each page in pixels
+	 */
+	public TextureAtlas(int pageSize)
+	{
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Queue 'img' to be packed under 'name' by the next call to pack().
+	 * Nothing happens if the atlas already holds the same pixels under 'name'.
+	 *
+	 * @param name The name to look the image up by, e.g. its file name
+	 * @param img The image to add, which must already be fully loaded
+	 */
+	public void add(String name, Image img)
+	{
+		if (img == null) return;
+		int w = img.getWidth(null);
+		int h = img.getHeight(null);
+		if (w <= 0 || h <= 0) return;
+
+		long sum = checksum(img, w, h);
+		AtlasRegion r = regions.get(name);
+		if (r != null && r.getWidth() == w && r.getHeight() == h && r.getChecksum() == sum)
+		{
+			pending.remove(name);
+			return;
+		}
+		pending.put(name, new Entry(name, img, 0, 0, w, h, sum));
+	}
+
+	/**
+	 * @return true if images have been added since the last pack()
+	 */
+	public boolean needsPacking()
+	{
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Pack every region and queued image into a new set of pages. Regions
+	 * returned by getRegion() before this call still draw correctly, but
+	 * should be looked up again to benefit from the new pages.
+	 *
+	 * @return true if anything was packed, false if nothing had been added
+	 */
+	public boolean pack()
+	{
+		if (pending.isEmpty()) return false;
+
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		for (AtlasRegion r : regions.values())
+		{
+			if (pending.containsKey(r.getName())) continue;
+			entries.add(new Entry(r.getName(), r.getPage(), r.getX(), r.getY(),
+					r.getWidth(), r.getHeight(), r.getChecksum()));
+		}
+		entries.addAll(pending.values());
+		pending.clear();
+
+		// Tallest first so each shelf wastes as little height as possible
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				if (a.h != b.h) return b.h - a.h;
+				if (a.w != b.w) return b.w - a.w;
+				return a.name.compareTo(b.name);
+			}
+		});
+
+		ArrayList<BufferedImage> packed = new ArrayList<BufferedImage>();
+		Map<String,AtlasRegion> placed = new LinkedHashMap<String,AtlasRegion>();
+		BufferedImage page = null;
+		Graphics2D g = null;
+		int x = 0, y = 0, shelf = 0;
+
+		for (Entry e : entries)
+		{
+			// Images too big for a page get a page of their own
+			if (e.w + 2*padding > pageSize || e.h + 2*padding > pageSize)
+			{
+				BufferedImage own = CompatibleImages.createImage(e.w, e.h, Transparency.TRANSLUCENT);
+				Graphics2D og = own.createGraphics();
+				og.setComposite(AlphaComposite.Src);
+				e.drawTo(og, 0, 0);
+				og.dispose();
+				packed.add(own);
+				placed.put(e.name, new AtlasRegion(e.name, own, packed.size()-1, 0, 0, e.w, e.h, e.sum));
+				continue;
+			}
+
+			// Start a new shelf when this one is full, and a new page when
+			// there is no room for another shelf
+			if (page != null && x + e.w + padding > pageSize)
+			{
+				x = padding;
+				y += shelf + padding;
+				shelf = 0;
+			}
+			if (page == null || y + e.h + padding > pageSize)
+			{
+				if (g != null) g.dispose();
+				page = CompatibleImages.createImage(pageSize, pageSize, Transparency.TRANSLUCENT);
+				g = page.createGraphics();
+				g.setComposite(AlphaComposite.Src);
+				packed.add(page);
+				x = padding;
+				y = padding;
+				shelf = 0;
+			}
+
+			e.drawTo(g, x, y);
+			placed.put(e.name, new AtlasRegion(e.name, page, packed.indexOf(page), x, y, e.w, e.h, e.sum));
+			x += e.w + padding;
+			shelf = Math.max(shelf, e.h);
+		}
+		if (g != null) g.dispose();
+
+		pages = packed;
+		regions = placed;
+		return true;
+	}
+
+	/**
+	 * @param name The name the image was added with
+	 * @return The packed region for 'name', or null if it has not been packed
+	 */
+	public AtlasRegion getRegion(String name)
+	{
+		return regions.get(name);
+	}
+
+	/**
+	 * @return The number of pages in the atlas
+	 */
+	public int getPageCount() { return pages.size(); }
+
+	/**
+	 * @param i The index of the page
+	 * @return Page 'i' of the atlas
+	 */
+	public BufferedImage getPage(int i) { return pages.get(i); }
+
+	/**
+	 * Save the atlas to 'folder' as one PNG per page plus an index file.
+	 * Images added since the last pack() are not saved.
+	 *
+	 * @param folder The folder to save to, which is created if needed
+	 * @return true if the atlas was saved, false otherwise
+	 */
+	public boolean save(String folder)
+	{
+		File dir = new File(folder);
+		try
+		{
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("could not create folder");
+
+			for (int i=0; i<pages.size(); i++)
+				ImageIO.write(pages.get(i), "png", new File(dir, "page" + i + ".png"));
+
+			try (PrintWriter out = new PrintWriter(new FileWriter(new File(dir, INDEX_FILE))))
+			{
+				out.println("// page x y width height checksum name");
+				out.println(pages.size() + " " + pageSize);
+				for (AtlasRegion r : regions.values())
+				{
+					out.println(r.getPageIndex() + " " + r.getX() + " " + r.getY() + " " +
+							r.getWidth() + " " + r.getHeight() + " " +
+							Long.toHexString(r.getChecksum()) + " " + r.getName());
+				}
+				// PrintWriter does not throw, so check that every line was written
+				if (out.checkError()) throw new IOException("could not write index");
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("Failed to save texture atlas to '" + folder + "':" + e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Load an atlas saved by save().
+	 *
+	 * @param folder The folder the atlas was saved to
+	 * @return The loaded atlas, or null if there is no atlas in 'folder' or it could not be read
+	 */
+	public static TextureAtlas load(String folder)
+	{
+		File index = new File(folder, INDEX_FILE);
+		if (!index.exists()) return null;
+
+		try (BufferedReader in = new BufferedReader(new FileReader(index)))
+		{
+			String line = in.readLine();
+			while (line != null && line.trim().startsWith("//")) line = in.readLine();
+			if (line == null) throw new IOException("missing header");
+			String[] vals = line.trim().split(" ");
+			int count = Integer.parseInt(vals[0]);
+
+			TextureAtlas atlas = new TextureAtlas(Integer.parseInt(vals[1]));
+			for (int i=0; i<count; i++)
+			{
+				BufferedImage png = ImageIO.read(new File(folder, "page" + i + ".png"));
+				if (png == null) throw new IOException("could not read page " + i);
+				atlas.pages.add(CompatibleImages.crop(png, 0, 0, png.getWidth(), png.getHeight()));
+			}
+
+			while ((line = in.readLine()) != null)
+			{
+				if (line.trim().length() == 0 || line.trim().startsWith("//")) continue;
+				vals = line.trim().split(" ", 7);
+				int p = Integer.parseInt(vals[0]);
+				AtlasRegion r = new AtlasRegion(vals[6], atlas.pages.get(p), p,
+						Integer.parseInt(vals[1]), Integer.parseInt(vals[2]),
+						Integer.parseInt(vals[3]), Integer.parseInt(vals[4]),
+						Long.parseUnsignedLong(vals[5], 16));
+				atlas.regions.put(r.getName(), r);
+			}
+			return atlas;
+		}
+		catch (Exception e)
+		{
+			System.err.println("Failed to read texture atlas '" + folder + "':" + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Work out a checksum of the pixels of 'img'.
+	 */
+	private static long checksum(Image img, int w, int h)
+	{
+		int[] argb = CompatibleImages.toARGB(img, 0, 0, w, h).getRGB(0, 0, w, h, null, 0, w);
+		CRC32 crc = new CRC32();
+		for (int p : argb)
+		{
+			crc.update(p >>> 24);
+			crc.update(p >>> 16);
+			crc.update(p >>> 8);
+			crc.update(p);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * An image waiting to be placed by pack(): either a newly added image
+	 * or a region copied from the previous set of pages.
+	 */
+	private static class Entry {
+
+		String name;
+		Image src;			// Image to copy the pixels from
+		int sx, sy;			// Top left of the pixels in 'src'
+		int w, h;
+		long sum;			// Checksum of the pixels
+
+		Entry(String name, Image src, int sx, int sy, int w, int h, long sum)
+		{
+			this.name = name;
+			this.src = src;
+			this.sx = sx;
+			this.sy = sy;
+			this.w = w;
+			this.h = h;
+			this.sum = sum;
+		}
+
+		void drawTo(Graphics2D g, int x, int y)
+		{
+			g.drawImage(src, x, y, x + w, y + h, sx, sy, sx + w, sy + h, null);
+		}
+	}
+}
@@ -1,17 +1,21 @@
 package game2D;
 
 /**
- * A Tile in the TileMap.
- * 
+ * A Tile in the TileMap. The map itself only stores tile characters, so
+ * the tiles returned by TileMap.getTile() are views of a position in the
+ * map: their character is read from and written to the map.
+ *
  * @author David Cairns
  *
  */
 public class Tile {
 
-	private char character=' ';	// The character associated with this tile
+	private TileMap map=null;	// The map this tile is a view of, null for a standalone tile
+	private int x=0, y=0;		// The tile's position in 'map' (in tiles)
+	private char character=' ';	// The character associated with a standalone tile
 	private int xc=0;			// The tile's x coordinate in pixels
 	private int yc=0;			// The tile's y coordinate in pixels
- 	
+
 	/**
 	 * Create an instance of a tile
 	 * @param c	The character associated with this tile
@@ -25,10 +29,26 @@ public class Tile {
 		yc = y;
 	}
 
+	/**
+	 * Create a view of the tile at 'x,y' in 'map'
+	 * @param map The map the tile is in
+	 * @param x The x tile coordinate (in tiles, not pixels)
+	 * @param y The y tile coordinate (in tiles, not pixels)
+	 */
+	Tile(TileMap map, int x, int y)
+	{
+		this.map = map;
+		this.x = x;
+		this.y = y;
+		xc = x * map.getTileWidth();
+		yc = y * map.getTileHeight();
+	}
+
 	/**
 	 * @return The character for this tile
 	 */
 	public char getCharacter() {
+		if (map != null) return map.getTileChar(x, y);
 		return character;
 	}
 
@@ -36,7 +56,10 @@ public class Tile {
 	 * @param character The character to set the tile to
 	 */
 	public void setCharacter(char character) {
-		this.character = character;
+		if (map != null)
+			map.setTileChar(character, x, y);
+		else
+			this.character = character;
 	}
 
 	/**
@@ -0,0 +1,176 @@
+package game2D;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * TileChunkCache pre-renders the tiles of a TileMap into square chunk images
+ * (16 x 16 tiles by default), so that drawing the map costs one drawImage per
+ * visible chunk rather than one per visible tile. A chunk is only re-rendered
+ * after one of its tiles has changed.
+ * <p>
+ * Chunk images are created the first time a chunk is drawn. To bound memory on
+ * large maps, at most a fixed number of chunk images are kept; when more are
+ * needed the one drawn least recently is released.
+ */
+public class TileChunkCache {
+
+	private TileMap map;
+	private int chunkTiles;			// Width and height of a chunk in tiles
+	private int chunksX;			// Number of chunks across the map
+	private int chunksY;			// Number of chunks down the map
+	private BufferedImage[] images;	// Rendered chunks, null if not rendered
+	private boolean[] dirty;		// true if a chunk needs rendering again
+	private boolean[] empty;		// true if a chunk has no tiles to draw
+	private long[] lastUsed;		// The frame each chunk was last drawn in
+	private int maxImages;			// The most chunk images to keep at once
+	private int imageCount;			// Number of chunk images currently kept
+	private long frame;				// Incremented on every draw
+
+	/**
+	 * Create a cache for 'map'. Nothing is rendered until draw() is called.
+	 *
+	 * @param map The map to cache
+	 * @param chunkTiles The width and height of each chunk in tiles
+	 * @param maxImages The most chunk images to keep at once
+	 */
+	public TileChunkCache(TileMap map, int chunkTiles, int maxImages)
+	{
+		this.map = map;
+		this.chunkTiles = Math.max(1, chunkTiles);
+		this.maxImages = Math.max(1, maxImages);
+		chunksX = (map.getMapWidth() + this.chunkTiles - 1) / this.chunkTiles;
+		chunksY = (map.getMapHeight() + this.chunkTiles - 1) / this.chunkTiles;
+		images = new BufferedImage[chunksX * chunksY];
+		dirty = new boolean[chunksX * chunksY];
+		empty = new boolean[chunksX * chunksY];
+		lastUsed = new long[chunksX * chunksY];
+	}
+
+	/**
+	 * @return The width and height of a chunk in tiles
+	 */
+	public int getChunkTiles() { return chunkTiles; }
+
+	/**
+	 * Mark the chunk holding tile 'x,y' as needing to be rendered again.
+	 *
+	 * @param x The x tile coordinate
+	 * @param y The y tile coordinate
+	 */
+	public void invalidate(int x, int y)
+	{
+		if (x < 0 || y < 0) return;
+		int cx = x / chunkTiles;
+		int cy = y / chunkTiles;
+		if (cx >= chunksX || cy >= chunksY) return;
+		dirty[cy * chunksX + cx] = true;
+	}
+
+	/**
+	 * Mark every chunk as needing to be rendered again.
+	 */
+	public void invalidateAll()
+	{
+		for (int i=0; i<dirty.length; i++) dirty[i] = true;
+	}
+
+	/**
+	 * Draw the chunks that overlap the clip region of 'g'.
+	 *
+	 * @param g The graphics device to draw to
+	 * @param xoff The x offset to shift the tile map by
+	 * @param yoff The y offset to shift the tile map by
+	 */
+	public void draw(Graphics2D g, int xoff, int yoff)
+	{
+		frame++;
+		int chunkW = chunkTiles * map.getTileWidth();
+		int chunkH = chunkTiles * map.getTileHeight();
+		if (chunkW <= 0 || chunkH <= 0) return;
+
+		// Work out which chunks are on screen
+		Rectangle clip = g.getClipBounds();
+		int c0 = 0, r0 = 0, c1 = chunksX - 1, r1 = chunksY - 1;
+		if (clip != null)
+		{
+			c0 = Math.max(c0, Math.floorDiv(clip.x - xoff, chunkW));
+			r0 = Math.max(r0, Math.floorDiv(clip.y - yoff, chunkH));
+			c1 = Math.min(c1, Math.floorDiv(clip.x + clip.width - 1 - xoff, chunkW));
+			r1 = Math.min(r1, Math.floorDiv(clip.y + clip.height - 1 - yoff, chunkH));
+		}
+
+		for (int cy=r0; cy<=r1; cy++)
+		{
+			for (int cx=c0; cx<=c1; cx++)
+			{
+				int i = cy * chunksX + cx;
+				if (images[i] == null || dirty[i]) render(cx, cy);
+				lastUsed[i] = frame;
+				if (empty[i]) continue;
+				g.drawImage(images[i], xoff + cx * chunkW, yoff + cy * chunkH, null);
+			}
+		}
+	}
+
+	/**
+	 * Render the tiles of chunk 'cx,cy' into its image.
+	 */
+	private void render(int cx, int cy)
+	{
+		int i = cy * chunksX + cx;
+		int tw = map.getTileWidth();
+		int th = map.getTileHeight();
+
+		if (images[i] == null)
+		{
+			if (imageCount >= maxImages) evict();
+			images[i] = CompatibleImages.createImage(chunkTiles * tw, chunkTiles * th, Transparency.TRANSLUCENT);
+			imageCount++;
+		}
+
+		Graphics2D g = images[i].createGraphics();
+		// Clear the chunk back to fully transparent
+		g.setComposite(AlphaComposite.Clear);
+		g.fillRect(0, 0, images[i].getWidth(), images[i].getHeight());
+		g.setComposite(AlphaComposite.SrcOver);
+
+		int x0 = cx * chunkTiles;
+		int y0 = cy * chunkTiles;
+		boolean blank = true;
+		for (int r=0; r<chunkTiles; r++)
+		{
+			for (int c=0; c<chunkTiles; c++)
+			{
+				Image img = map.getTileImage(x0 + c, y0 + r);
+				if (img == null) continue;
+				g.drawImage(img, c * tw, r * th, null);
+				blank = false;
+			}
+		}
+		g.dispose();
+		dirty[i] = false;
+		empty[i] = blank;
+	}
+
+	/**
+	 * Release the chunk image that was drawn least recently.
+	 */
+	private void evict()
+	{
+		int oldest = -1;
+		for (int i=0; i<images.length; i++)
+		{
+			if (images[i] != null && (oldest < 0 || lastUsed[i] < lastUsed[oldest]))
+				oldest = i;
+		}
+		if (oldest < 0) return;
+		images[oldest].flush();
+		images[oldest] = null;
+		imageCount--;
+	}
+}
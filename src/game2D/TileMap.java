@@ -1,11 +1,11 @@
 package game2D;
 
-import javax.swing.ImageIcon;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Rectangle;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.io.*;
 
 
@@ -21,9 +21,10 @@ import java.io.*;
 // # character. The dot character always defaults to a blank space 
 // Note that the referenced files should be in the same directory as the
 // tile map.
+// Each mapping may be followed by attributes (see TileType)
 #b=orangeblock.png
-#c=greencircle.png
-#g=glasses.png
+#c=greencircle.png walkable
+#g=glasses.png passable
 // The actual tile map is preceded by the #map line
 #map
 bbbbbbbbbb
@@ -38,15 +39,42 @@ bbbbbbbbbb
 public class TileMap 
 {
 
-	private Tile [][] tmap;		// The tile map grid, initially null
+	// The tile characters in row order, so the tile at x,y is at
+	// y * mapWidth + x. They are held in 'grid', or in 'offHeap' (two bytes
+	// per tile) when setOffHeap(true) has been called or the map was loaded
+	// from a compiled file, which stays read only until a tile is set. Both
+	// are null until a map has been loaded, and while the map is streamed
+	// from a chunk file by 'world'
+	private char[] grid;
+	private ByteBuffer offHeap;
+	private ChunkedWorld world;
+	private boolean useOffHeap = false;
 	private int mapWidth=0;		// The maps width in tiles
 	private int mapHeight=0;	// The maps height in tiles
 	private int tileWidth=0;	// The width of a tile in pixels
 	private int tileHeight=0;	// The height of a tile in pixels
+	private int revision=0;		// Incremented whenever a tile changes
 	
-	// imagemap contains a set of character to image mappings for
-	// quick loop up of the image associated with a given character.
-	private Map<String,Image> imagemap = new HashMap<String,Image>();
+	// Pre-rendered chunks of the map, null when caching is off or the map
+	// has not been drawn since it was loaded
+	private TileChunkCache cache = null;
+	private boolean caching = false;
+	
+	// Tiles changed since the last call to addDirtyTiles(), as y * mapWidth + x.
+	// After MAX_CHANGES the whole map is treated as changed instead
+	private static final int MAX_CHANGES = 256;
+	private int[] changes = new int[16];
+	private int changeCount = 0;
+	private boolean allChanged = true;
+	
+	// The type of each tile character, indexed by the character itself so
+	// a lookup is a single array access. Characters past the end of the
+	// array, or not declared in the map header, are TileType.UNDEFINED
+	private TileType[] types = newTypes(0);
+	
+	// Atlas regions to draw each tile character from, indexed like 'types',
+	// null when not using an atlas
+	private AtlasRegion[] regions = null;
 	
 	/**
 	 * @return The map height in tiles
@@ -108,11 +136,10 @@ public class TileMap
 		{
 			BufferedReader in = new BufferedReader(new FileReader(path));
 			String line="";
-			String trimmed="";
 			String [] vals;
 			
-			// First we need to clear out the old image map
-			imagemap.clear();
+			// First we need to clear out the old tile atlas regions
+			regions = null;
 			
 			// Read the first line of the tile map to find out
 			// the relevant dimensions of the map plus the tiles
@@ -132,45 +159,29 @@ public class TileMap
 			tileWidth = Integer.parseInt(vals[2]);
 			tileHeight = Integer.parseInt(vals[3]);
 			
-			// Now look for the character assignments
-			while ((line = in.readLine()) != null)
-			{
-				trimmed = line.trim();
-				// Skip the current line if it's a comment
-				if (trimmed.startsWith("//")) continue;
-				// Break out of the loop if we find the map
-				if (trimmed.startsWith("#map")) break;
-				
-				if (trimmed.charAt(0) == '#') // Look for a character to image map
-				{
-					// Extract the character
-					
-					String ch = "" + trimmed.charAt(1);
-					// and it's file name
-					String fileName = trimmed.substring(3,trimmed.length());
-					
-					Image img  = new ImageIcon(folder + "/" + fileName).getImage();
-					// Now add this character->image mapping to the map
-					if (img != null)
-						imagemap.put(ch,img);
-					else
-						System.err.println("Failed to load image '" + folder + "/" + fileName + "'");
-				}
-			}
+			// Now look for the character assignments. A new type table is
+			// created rather than cleared in case a mirror still shares it
+			TileType[] declared = readTypes(in, folder);
+			boolean found = (declared != null);
+			types = found ? declared : newTypes(0);
+			
+			revision++;
+			cache = null;
+			allChanged = true;
 			
 			// Check the map dimensione are at least > 0
 			if ((mapWidth > 0) && (mapHeight > 0))
 			{
-				tmap = new Tile[mapWidth][mapHeight]; 
+				allocate();
 			}
 			else
 			{
 				System.err.println("Incorrect image map dimensions.");
-				trimmed = "";
+				found = false;
 			}
 			
 			// Now read in the tile map structure
-			if (trimmed.startsWith("#map"))
+			if (found)
 			{
 				row=0;
 				while ((line = in.readLine()) != null)
@@ -184,8 +195,11 @@ public class TileMap
 						continue;
 					}
 					
-					for (int col=0; col<mapWidth && col<line.length(); col++)
-						tmap[col][row] = new Tile(line.charAt(col),col*tileWidth,row*tileHeight);
+					if (grid != null)
+						line.getChars(0, mapWidth, grid, row*mapWidth);
+					else
+						for (int col=0; col<mapWidth; col++)
+							offHeap.putChar((row*mapWidth + col) << 1, line.charAt(col));
 					row++;
 					
 					if (row >= mapHeight) break;
@@ -210,22 +224,343 @@ public class TileMap
 		return true;
 	}
 	
+	/**
+	 * Reads the character assignments of a map file, up to and including
+	 * the #map line.
+	 * 
+	 * @param in The map file, positioned after its first line
+	 * @param folder The folder the tile images are located in
+	 * @return A type table as made by newTypes() holding the declared types,
+	 * or null if the file ends before the #map line
+	 */
+	static TileType[] readTypes(BufferedReader in, String folder) throws IOException
+	{
+		TileType[] declared = newTypes(0);
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			String trimmed = line.trim();
+			// Skip the current line if it's a comment
+			if (trimmed.startsWith("//")) continue;
+			// Stop if we find the map
+			if (trimmed.startsWith("#map")) return declared;
+			
+			if (trimmed.charAt(0) == '#') // Look for a character to image map
+			{
+				// Extract the character
+				char ch = trimmed.charAt(1);
+				// and its file name, followed by any attributes
+				String[] parts = trimmed.substring(3,trimmed.length()).trim().split("\\s+");
+				String fileName = parts[0];
+				int flags = TileType.parseFlags(parts, 1);
+				if (flags < 0)
+				{
+					System.err.println("Unknown tile attribute in '" + trimmed + "'");
+					flags = TileType.parseFlags(new String[0], 0);
+				}
+				
+				Image img  = CompatibleImages.load(folder + "/" + fileName);
+				// Now add this character's type to the map
+				if (img == null)
+					System.err.println("Failed to load image '" + folder + "/" + fileName + "'");
+				else if (ch == '.')
+					System.err.println("The '.' tile is always blank");
+				else
+				{
+					if (ch >= declared.length)
+					{
+						TileType[] grown = newTypes(ch + 1);
+						System.arraycopy(declared, 0, grown, 0, declared.length);
+						declared = grown;
+					}
+					declared[ch] = new TileType(ch, img, folder + "/" + fileName, flags);
+				}
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * Generate the tile map as a String so we can inspect its current state
 	 */
 	public String toString()
 	{
-		StringBuffer s = new StringBuffer();
+		StringBuilder s = new StringBuilder((mapWidth + 1) * mapHeight);
+		if (!hasTiles()) return s.toString();
 		for (int r=0; r<mapHeight; r++)
 		{
 			for (int c=0; c<mapWidth; c++)
-				s.append(tmap[c][r].getCharacter());
+				s.append(get(c, r));
 	
 			s.append('\n');
 		}
 		return s.toString();
 	}
 	
+	/**
+	 * Selects whether the tile characters are kept in a direct ByteBuffer
+	 * outside the Java heap rather than in a char array. This suits very
+	 * large maps, since the grid then does not count towards the heap size
+	 * or get copied by the garbage collector. Any tiles already loaded are
+	 * moved to the new storage, and maps loaded later use it too.
+	 * 
+	 * @param on true to keep the tiles off the heap
+	 */
+	public void setOffHeap(boolean on)
+	{
+		useOffHeap = on;
+		if (!hasTiles() || world != null || on == (offHeap != null)) return;
+		char[] old = new char[mapWidth * mapHeight];
+		copyTiles(old);
+		allocate();
+		if (grid != null)
+			System.arraycopy(old, 0, grid, 0, old.length);
+		else
+			offHeap.asCharBuffer().put(old);
+	}
+	
+	/**
+	 * @return true if the tile characters are kept off the heap
+	 */
+	public boolean isOffHeap()
+	{
+		return hasTiles() ? offHeap != null : useOffHeap;
+	}
+	
+	/**
+	 * Replace the map with one read from a compiled map file by
+	 * CompiledMap. 'tiles' is used as the tile storage as it is, so a
+	 * memory mapped file is not copied unless a tile is set. If 'tiles' is
+	 * read only it is copied by the first call to setTileChar().
+	 * 
+	 * @param w The map width in tiles
+	 * @param h The map height in tiles
+	 * @param tw The tile width in pixels
+	 * @param th The tile height in pixels
+	 * @param t The tile type table, as made by newTypes()
+	 * @param tiles The tile characters in row order, two bytes each
+	 */
+	void setCompiled(int w, int h, int tw, int th, TileType[] t, ByteBuffer tiles)
+	{
+		mapWidth = w;
+		mapHeight = h;
+		tileWidth = tw;
+		tileHeight = th;
+		types = t;
+		regions = null;
+		closeWorld();
+		grid = null;
+		offHeap = tiles;
+		revision++;
+		cache = null;
+		allChanged = true;
+	}
+	
+	/**
+	 * @return The tile type table, indexed by character. It must not be changed
+	 */
+	TileType[] getTypes()
+	{
+		return types;
+	}
+	
+	/**
+	 * @return The atlas regions to draw each tile character from, or null if
+	 * no atlas is used. It must not be changed
+	 */
+	AtlasRegion[] getRegions()
+	{
+		return regions;
+	}
+	
+	/**
+	 * Replace the tile storage with a blank grid of mapWidth x mapHeight
+	 * tiles, on or off the heap as selected by setOffHeap().
+	 */
+	private void allocate()
+	{
+		closeWorld();
+		int size = mapWidth * mapHeight;
+		if (useOffHeap)
+		{
+			grid = null;
+			offHeap = ByteBuffer.allocateDirect(size * 2).order(ByteOrder.nativeOrder());
+			for (int i=0; i<size; i++) offHeap.putChar(i << 1, '.');
+		}
+		else
+		{
+			offHeap = null;
+			grid = new char[size];
+			Arrays.fill(grid, '.');
+		}
+	}
+	
+	/**
+	 * @return true once there is a grid of tiles
+	 */
+	private boolean hasTiles()
+	{
+		return grid != null || offHeap != null || world != null;
+	}
+	
+	/**
+	 * @return The character of the tile at index 'i' (y * mapWidth + x)
+	 */
+	private char get(int i)
+	{
+		if (grid != null) return grid[i];
+		if (offHeap != null) return offHeap.getChar(i << 1);
+		return world.get(i % mapWidth, i / mapWidth);
+	}
+	
+	/**
+	 * @return The character of the tile at 'x,y', which must be in the map
+	 */
+	private char get(int x, int y)
+	{
+		return (world != null) ? world.get(x, y) : get(y*mapWidth + x);
+	}
+	
+	/**
+	 * Stream the map from a chunk file made by ChunkedWorld.create(), in
+	 * place of any map already loaded. Only the chunks in use are held in
+	 * memory, at most 'budget' of them, so the map may be far larger than
+	 * the heap. Call prefetch() as the view moves so that chunks are read
+	 * before they are needed; tiles in any other chunk are still returned,
+	 * but the chunk is read while the caller waits. Changed tiles are
+	 * written back to the file when their chunk is dropped, or by flush().
+	 * <p>
+	 * A streamed map is meant to be used from one thread. createMirror()
+	 * and copyTiles() copy the whole map, so do not use them on large maps.
+	 * 
+	 * @param file The chunk file
+	 * @param budget The most chunks to keep in memory
+	 * @return true if the map was opened, false otherwise
+	 */
+	public boolean loadChunked(File file, int budget)
+	{
+		ChunkedWorld w;
+		try
+		{
+			w = ChunkedWorld.open(file, budget);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Failed to open chunked map '" + file + "':" + e);
+			return false;
+		}
+		
+		closeWorld();
+		grid = null;
+		offHeap = null;
+		world = w;
+		mapWidth = w.getMapWidth();
+		mapHeight = w.getMapHeight();
+		tileWidth = w.getTileWidth();
+		tileHeight = w.getTileHeight();
+		types = w.getTypes();
+		regions = null;
+		revision++;
+		cache = null;
+		allChanged = true;
+		return true;
+	}
+	
+	/**
+	 * @return The chunk file the map is streamed from, or null if the whole
+	 * map is in memory
+	 */
+	public ChunkedWorld getChunkedWorld()
+	{
+		return world;
+	}
+	
+	/**
+	 * Start reading the chunks that cover 'area' of a streamed map, plus a
+	 * margin of one chunk on every side, in the background. Does nothing if
+	 * the whole map is in memory.
+	 * 
+	 * @param area The area about to be shown, in map pixels
+	 */
+	public void prefetch(Rectangle area)
+	{
+		if (world == null || tileWidth <= 0 || tileHeight <= 0) return;
+		int m = world.getChunkTiles();
+		world.prefetch(Math.floorDiv(area.x, tileWidth) - m,
+				Math.floorDiv(area.y, tileHeight) - m,
+				Math.floorDiv(area.x + area.width - 1, tileWidth) + m,
+				Math.floorDiv(area.y + area.height - 1, tileHeight) + m);
+	}
+	
+	/**
+	 * Write any changed tiles of a streamed map back to its chunk file.
+	 * Does nothing if the whole map is in memory.
+	 */
+	public void flush()
+	{
+		if (world != null) world.flush();
+	}
+	
+	/**
+	 * Release the map once it is no longer needed. A streamed map writes any
+	 * changed tiles back to its chunk file and closes it; its loading thread
+	 * does not keep the program running, so tiles that are not written back
+	 * before the program exits are lost. Loading another map into this one
+	 * does the same. Does nothing if the whole map is in memory.
+	 */
+	public void close()
+	{
+		closeWorld();
+	}
+	
+	/**
+	 * Stop streaming from the chunk file, if there is one, writing back any
+	 * changed tiles first.
+	 */
+	private void closeWorld()
+	{
+		if (world == null) return;
+		world.close();
+		world = null;
+	}
+	
+	/**
+	 * Create a type table with no declared types, big enough for every
+	 * character below 'size' and at least every ASCII character.
+	 */
+	static TileType[] newTypes(int size)
+	{
+		TileType[] t = new TileType[Math.max(128, size)];
+		Arrays.fill(t, TileType.UNDEFINED);
+		t['.'] = TileType.BLANK;
+		return t;
+	}
+	
+	/**
+	 * Get the type of tiles with character 'ch'.
+	 * 
+	 * @param ch The tile character
+	 * @return The type declared for 'ch' in the map header, TileType.BLANK
+	 * for '.', or TileType.UNDEFINED for any other character
+	 */
+	public TileType getType(char ch)
+	{
+		return (ch < types.length) ? types[ch] : TileType.UNDEFINED;
+	}
+	
+	/**
+	 * Get the type of the tile at position 'x,y'.
+	 * 
+	 * @param x	The x tile coordinate (in tiles, not pixels)
+	 * @param y The y tile coordinate (in tiles, not pixels)
+	 * @return The tile's type, or TileType.UNDEFINED if 'x,y' is not in the map
+	 */
+	public TileType getTileType(int x, int y)
+	{
+		if (!valid(x,y) || !hasTiles()) return TileType.UNDEFINED;
+		return getType(get(x, y));
+	}
+	
 	/**
 	 * Get the Image object associated with the tile at position 'x','y'
 	 * 
@@ -235,12 +570,22 @@ public class TileMap
 	 */
 	public Image getTileImage(int x, int y)
 	{
-		if (!valid(x,y)) return null;
-		Tile t = tmap[x][y];
-		if (t == null) return null;
-		char ch = t.getCharacter();
-		if (ch == '.') return null; // Blank space
-		return imagemap.get(ch + "");
+		if (!valid(x,y) || !hasTiles()) return null;
+		return getType(get(x, y)).getImage();
+	}
+	
+	/**
+	 * Get the atlas region the tile at position 'x,y' is drawn from
+	 * 
+	 * @param x	The x tile coordinate (in tiles, not pixels)
+	 * @param y The y tile coordinate (in tiles, not pixels)
+	 * @return The region, or null if the tile is blank or the map is not drawn from an atlas
+	 */
+	public AtlasRegion getTileRegion(int x, int y)
+	{
+		if (regions == null || !valid(x,y) || !hasTiles()) return null;
+		char ch = get(x, y);
+		return (ch < regions.length) ? regions[ch] : null;
 	}
 	
 	/**
@@ -253,7 +598,7 @@ public class TileMap
 	public int getTileXC(int x, int y)
 	{
 		if (!valid(x,y)) return 0;
-		return tmap[x][y].getXC();
+		return x * tileWidth;
 	}
 	
 	/**
@@ -266,7 +611,7 @@ public class TileMap
 	public int getTileYC(int x, int y)
 	{
 		if (!valid(x,y)) return 0;
-		return tmap[x][y].getYC();
+		return y * tileHeight;
 	}
 	
 	/**
@@ -280,6 +625,27 @@ public class TileMap
 		return (x >= 0 && y >= 0 && x<mapWidth && y<mapHeight);
 	}
 	
+	/**
+	 * Replace read only tile storage, such as a mapped compiled map, with a
+	 * copy on or off the heap as selected by setOffHeap().
+	 */
+	private void copyReadOnly()
+	{
+		if (useOffHeap)
+		{
+			ByteBuffer copy = ByteBuffer.allocateDirect(offHeap.capacity()).order(offHeap.order());
+			copy.put(offHeap.duplicate());
+			copy.rewind();
+			offHeap = copy;
+		}
+		else
+		{
+			grid = new char[mapWidth * mapHeight];
+			offHeap.asCharBuffer().get(grid);
+			offHeap = null;
+		}
+	}
+	
 	/**
 	 * Sets the tile character at position 'x,y' to the value of 'ch'.
 	 * 
@@ -290,8 +656,28 @@ public class TileMap
 	 */
 	public boolean setTileChar(char ch, int x, int y)
 	{
-		if (!valid(x,y)) return false;
-		tmap[x][y].setCharacter(ch);
+		if (!valid(x,y) || !hasTiles()) return false;
+		int i = y*mapWidth + x;
+		if (get(i) == ch) return true;
+		if (offHeap != null && offHeap.isReadOnly()) copyReadOnly();
+		if (grid != null)
+			grid[i] = ch;
+		else if (offHeap != null)
+			offHeap.putChar(i << 1, ch);
+		else
+			world.set(x, y, ch);
+		revision++;
+		if (cache != null) cache.invalidate(x, y);
+		
+		if (allChanged) return true;
+		if (changeCount == MAX_CHANGES)
+		{
+			allChanged = true;
+			return true;
+		}
+		if (changeCount == changes.length)
+			changes = Arrays.copyOf(changes, changeCount * 2);
+		changes[changeCount++] = y * mapWidth + x;
 		return true;
 	}
 	
@@ -304,25 +690,210 @@ public class TileMap
 	 */
 	public char getTileChar(int x, int y)
 	{
-		if (!valid(x,y)) return '?';
-		return tmap[x][y].getCharacter();
+		if (!valid(x,y) || !hasTiles()) return '?';
+		return get(x, y);
 	}
 
 	/**
-	 * Gets the tile object at position 'x,y'
+	 * Gets a view of the tile at position 'x,y'. The map does not keep tile
+	 * objects, so a new view is made on each call; reading or setting its
+	 * character reads or sets the map's. Use getTileChar() and setTileChar()
+	 * in loops that visit many tiles.
 	 * 
 	 * @param x The x tile coordinate (in tiles, not pixels)
 	 * @param y The y tile coordinate (in tiles, not pixels)
-	 * @return The tile object at position 'x,y'.
+	 * @return A view of the tile at position 'x,y', or null if there is no such tile
 	 */
 	public Tile getTile(int x, int y)
 	{
-		if (!valid(x,y)) return null;
-		return tmap[x][y];
+		if (!valid(x,y) || !hasTiles()) return null;
+		return new Tile(this, x, y);
+	}
+	
+	/**
+	 * Turns the chunk cache on or off. When it is on, draw()
+	 * renders the map into chunks of 16 x 16 tiles the first time they are
+	 * needed and then just draws the chunks, only rendering a chunk again
+	 * after one of its tiles has been changed with setTileChar().
+	 * 
+	 * @param on true to draw through the chunk cache
+	 */
+	public void setCaching(boolean on)
+	{
+		caching = on;
+		if (!on) cache = null;
+	}
+	
+	/**
+	 * Adds the screen area of every tile changed with setTileChar() since
+	 * the last call to 'regions', or the whole map if it has been loaded
+	 * since then or too many tiles have changed to list.
+	 * 
+	 * @param regions The regions to add to
+	 * @param xoff The x offset the map will be drawn at
+	 * @param yoff The y offset the map will be drawn at
+	 */
+	public void addDirtyTiles(DirtyRegions regions, int xoff, int yoff)
+	{
+		if (allChanged)
+			regions.add(xoff, yoff, getPixelWidth(), getPixelHeight());
+		else
+		{
+			for (int i=0; i<changeCount; i++)
+			{
+				int x = changes[i] % mapWidth;
+				int y = changes[i] / mapWidth;
+				regions.add(xoff + x*tileWidth, yoff + y*tileHeight, tileWidth, tileHeight);
+			}
+		}
+		changeCount = 0;
+		allChanged = false;
+	}
+	
+	/**
+	 * @return true if draw() uses the chunk cache
+	 */
+	public boolean isCaching()
+	{
+		return caching;
+	}
+	
+	/**
+	 * @return A counter that changes whenever the map is loaded or a tile is set
+	 */
+	public int getRevision()
+	{
+		return revision;
 	}
 	
 	/**
-	 * Draws the tile map to the graphics device pointed to by 'g'.
+	 * Copies the tile characters into 'dest' in row order, i.e. the tile at
+	 * 'x,y' goes to dest[y * getMapWidth() + x].
+	 * 
+	 * @param dest An array of at least getMapWidth() * getMapHeight() characters
+	 */
+	public void copyTiles(char[] dest)
+	{
+		if (grid != null)
+			System.arraycopy(grid, 0, dest, 0, mapWidth * mapHeight);
+		else if (offHeap != null)
+			offHeap.asCharBuffer().get(dest, 0, mapWidth * mapHeight);
+		else if (world != null)
+			for (int r=0; r<mapHeight; r++)
+				for (int c=0; c<mapWidth; c++)
+					dest[r*mapWidth + c] = world.get(c, r);
+	}
+	
+	/**
+	 * Sets every tile from 'src', laid out as produced by copyTiles(). Only
+	 * tiles whose character differs are changed.
+	 * 
+	 * @param src The tile characters to copy from
+	 */
+	public void setTiles(char[] src)
+	{
+		for (int r=0; r<mapHeight; r++)
+			for (int c=0; c<mapWidth; c++)
+				setTileChar(src[r*mapWidth + c], c, r);
+	}
+	
+	/**
+	 * Creates a blank map with the same dimensions and tile images as this
+	 * one. The images are shared rather than copied, so the mirror can be
+	 * drawn from another thread once this map has finished loading.
+	 * 
+	 * @return A new TileMap filled with blank tiles
+	 */
+	public TileMap createMirror()
+	{
+		return createMirror(mapWidth, mapHeight, tileWidth, tileHeight, types, regions, caching, useOffHeap);
+	}
+	
+	/**
+	 * Creates a blank map of 'w' x 'h' tiles that draws with 'types' and
+	 * 'regions', e.g. from a copy of another map's layout so that the map
+	 * itself need not be read.
+	 */
+	static TileMap createMirror(int w, int h, int tw, int th, TileType[] types, AtlasRegion[] regions,
+								boolean caching, boolean offHeap)
+	{
+		TileMap m = new TileMap();
+		m.mapWidth = w;
+		m.mapHeight = h;
+		m.tileWidth = tw;
+		m.tileHeight = th;
+		m.types = types;
+		m.regions = regions;
+		m.caching = caching;
+		m.useOffHeap = offHeap;
+		m.allocate();
+		return m;
+	}
+	
+	/**
+	 * @return true if this map draws its tiles with 'types' and 'regions'
+	 */
+	boolean drawsWith(TileType[] t, AtlasRegion[] r)
+	{
+		return types == t && regions == r;
+	}
+	
+	/**
+	 * Adds every tile image to 'atlas', named by the file it was loaded from.
+	 * 
+	 * @param atlas The atlas to add the images to
+	 */
+	public void addToAtlas(TextureAtlas atlas)
+	{
+		for (int ch=0; ch<types.length; ch++)
+			if (types[ch].getImage() != null)
+				atlas.add(types[ch].getFile(), types[ch].getImage());
+	}
+	
+	/**
+	 * Draw tiles from the regions of 'atlas' instead of from the separate tile
+	 * images. Tiles whose image is not in the atlas are still drawn from
+	 * their own image.
+	 * 
+	 * @param atlas The atlas to draw from, or null to stop using an atlas
+	 * @return true if every tile image was found in the atlas
+	 */
+	public boolean setAtlas(TextureAtlas atlas)
+	{
+		if (atlas == null)
+		{
+			regions = null;
+			return true;
+		}
+		
+		AtlasRegion[] found = new AtlasRegion[types.length];
+		boolean all = true;
+		for (int ch=0; ch<types.length; ch++)
+		{
+			Image img = types[ch].getImage();
+			if (img == null) continue;
+			AtlasRegion r = atlas.getRegion(types[ch].getFile());
+			if (r != null && r.getWidth() == img.getWidth(null) && r.getHeight() == img.getHeight(null))
+				found[ch] = r;
+			else
+				all = false;
+		}
+		regions = found;
+		return all;
+	}
+	
+	/**
+	 * @param other The map to compare with
+	 * @return true if this map and 'other' draw their tiles with the same images
+	 */
+	public boolean sharesImages(TileMap other)
+	{
+		return other != null && types == other.types;
+	}
+	
+	/**
+	 * Draws the tile map to the graphics device pointed to by 'g'. Only the
+	 * tiles that overlap the clip region of 'g' are visited.
 	 * 
 	 * @param g The graphics device to draw to
 	 * @param xoff The xoffset to shift the tile map by
@@ -331,24 +902,45 @@ public class TileMap
 	public void draw(Graphics2D g, int xoff, int yoff)
 	{
 		if (g == null) return;
+		
+		if (caching && hasTiles())
+		{
+			if (cache == null) cache = new TileChunkCache(this, 16, 64);
+			cache.draw(g, xoff, yoff);
+			return;
+		}
 	
+		if (!hasTiles() || tileWidth <= 0 || tileHeight <= 0) return;
+		
+		// Work out the range of columns and rows that overlap the clip
+		// region, so the cost depends on the screen size and not the map size
 		Image img=null;
-		Rectangle rect = (Rectangle)g.getClip();
+		Rectangle rect = g.getClipBounds();
+		int c0 = 0, r0 = 0, c1 = mapWidth - 1, r1 = mapHeight - 1;
+		if (rect != null)
+		{
+			c0 = Math.max(c0, Math.floorDiv(rect.x - xoff, tileWidth));
+			r0 = Math.max(r0, Math.floorDiv(rect.y - yoff, tileHeight));
+			c1 = Math.min(c1, Math.floorDiv(rect.x + rect.width - 1 - xoff, tileWidth));
+			r1 = Math.min(r1, Math.floorDiv(rect.y + rect.height - 1 - yoff, tileHeight));
+		}
 		int xc,yc;
 		
-		for (int r=0; r<mapHeight; r++)
+		TileType[] types = this.types;
+		AtlasRegion[] regions = this.regions;
+		AtlasRegion region;
+		for (int r=r0; r<=r1; r++)
 		{
-			for (int c=0; c<mapWidth; c++)
+			yc = yoff + r*tileHeight;
+			for (int c=c0; c<=c1; c++)
 			{
-				img = getTileImage(c, r);
-				if (img == null) continue;
+				char ch = get(c, r);
+				if (ch >= types.length) continue;
 				xc = xoff + c*tileWidth;
-				yc = yoff + r*tileHeight;
-				
-				// Only draw the tile if it is on screen, otherwise go back round the loop
-				if (xc+tileWidth < 0 || xc >= rect.x + rect.width) continue;
-				if (yc+tileHeight < 0 || yc >= rect.y + rect.height) continue;
-				g.drawImage(img,xc,yc,null);
+				if (regions != null && (region = regions[ch]) != null)
+					region.draw(g,xc,yc);
+				else if ((img = types[ch].getImage()) != null)
+					g.drawImage(img,xc,yc,null);
 			}
 		}		
 	}
@@ -0,0 +1,114 @@
+package game2D;
+
+import java.awt.Image;
+
+/**
+ * A TileType describes every tile in a TileMap that uses the same
+ * character: the image it is drawn with and what it does in the game. The
+ * types are declared in the header of the map file, one per line, as the
+ * character, the image file and then any attributes:
+ *
+ * <pre>
+ * #g=grass.png walkable
+ * #l=sl.png switch
+ * </pre>
+ *
+ * Tiles with an image are solid unless they are given the 'passable'
+ * attribute. The other attributes are 'walkable' (enemies may walk along
+ * it) and 'switch' (can be clicked to change the map). What each one means
+ * is up to the game.
+ */
+public class TileType {
+
+	// Attribute flags
+	public static final int SOLID = 1;
+	public static final int WALKABLE = 2;
+	public static final int SWITCH = 8;
+
+	// The type of '.' tiles, which are blank and never solid
+	public static final TileType BLANK = new TileType('.', null, null, 0);
+
+	// The type of any other character without a declared image, which is
+	// solid, as any tile that is not blank always has been
+	public static final TileType UNDEFINED = new TileType('?', null, null, SOLID);
+
+	private char character;		// The character the type is declared for
+	private Image image;		// The image to draw, null if nothing is drawn
+	private String file;		// The file 'image' was loaded from, used to name it in an atlas
+	private int flags;			// A combination of SOLID, WALKABLE and SWITCH
+
+	/**
+	 * Create a tile type.
+	 *
+	 * @param ch The character of tiles of this type
+	 * @param image The image to draw them with, or null
+	 * @param file The file the image was loaded from, or null
+	 * @param flags A combination of SOLID, WALKABLE and SWITCH
+	 */
+	public TileType(char ch, Image image, String file, int flags)
+	{
+		this.character = ch;
+		this.image = image;
+		this.file = file;
+		this.flags = flags;
+	}
+
+	/**
+	 * Work out the flags for a tile with an image from the attributes
+	 * following its file name in the map header.
+	 *
+	 * @param attrs The attributes, e.g. { "walkable", "switch" }
+	 * @param from The index in 'attrs' of the first attribute
+	 * @return The flags, or -1 if an attribute is not recognised
+	 */
+	public static int parseFlags(String[] attrs, int from)
+	{
+		int f = SOLID;
+		for (int i=from; i<attrs.length; i++)
+		{
+			String a = attrs[i].toLowerCase();
+			if (a.length() == 0) continue;
+			if (a.equals("solid")) f |= SOLID;
+			else if (a.equals("passable")) f &= ~SOLID;
+			else if (a.equals("walkable")) f |= WALKABLE;
+			else if (a.equals("switch")) f |= SWITCH;
+			else return -1;
+		}
+		return f;
+	}
+
+	/**
+	 * @return The character of tiles of this type
+	 */
+	public char getCharacter() { return character; }
+
+	/**
+	 * @return The image tiles of this type are drawn with, null if they are not drawn
+	 */
+	public Image getImage() { return image; }
+
+	/**
+	 * @return The file the image was loaded from, or null
+	 */
+	public String getFile() { return file; }
+
+	/**
+	 * @return The flags of this type, a combination of SOLID, WALKABLE and SWITCH
+	 */
+	public int getFlags() { return flags; }
+
+	/**
+	 * @return true if sprites cannot move through tiles of this type
+	 */
+	public boolean isSolid() { return (flags & SOLID) != 0; }
+
+	/**
+	 * @return true if enemies may walk along tiles of this type
+	 */
+	public boolean isWalkable() { return (flags & WALKABLE) != 0; }
+
+	/**
+	 * @return true if tiles of this type are switches
+	 */
+	public boolean isSwitch() { return (flags & SWITCH) != 0; }
+}
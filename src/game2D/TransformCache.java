@@ -0,0 +1,293 @@
+package game2D;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * TransformCache keeps scaled and rotated copies of images so that drawing
+ * the same image with the same transform again is a plain blit. Scale is
+ * rounded to the nearest 1/SCALE_STEPS and rotation to the nearest
+ * 1/ROTATION_STEPS of a turn, so a sprite that rotates smoothly reuses a
+ * bounded set of copies. When the copies add up to more pixels than the
+ * cache's budget, the ones drawn least recently are dropped.
+ * <p>
+ * The methods are synchronized, so one cache can be shared by the game
+ * and render threads.
+ */
+public class TransformCache {
+
+	public static final int SCALE_STEPS = 64;		// Scale steps per unit of scale
+	public static final int ROTATION_STEPS = 360;	// Rotation steps per turn
+
+	private final LinkedHashMap<Key,Entry> entries = new LinkedHashMap<Key,Entry>(16, 0.75f, true);
+	private final Key probe = new Key();	// Reused for lookups so a hit does not allocate
+	private final long maxPixels;			// Pixel budget for all copies together
+	private long pixels;					// Pixels in the copies currently held
+	private long hits, misses;
+
+	/**
+	 * Create an empty cache. Copies bigger than a quarter of the budget are
+	 * never cached, but drawn with a transform each time.
+	 *
+	 * @param maxPixels The total number of pixels the cached copies may use
+	 */
+	public TransformCache(long maxPixels)
+	{
+		this.maxPixels = maxPixels;
+	}
+
+	/**
+	 * Draw 'img' scaled by 'scale' and rotated by 'rotation' about its
+	 * centre, placed as drawImage(img, transform) would with a transform
+	 * that first translates to 'x,y'.
+	 *
+	 * @param g The graphics object to draw to
+	 * @param img The image to draw
+	 * @param x The x position in pixels
+	 * @param y The y position in pixels
+	 * @param scale The scale factor
+	 * @param rotation The rotation in radians
+	 */
+	public void draw(Graphics2D g, Image img, float x, float y, double scale, double rotation)
+	{
+		int qs = quantiseScale(scale);
+		int qr = quantiseRotation(rotation);
+		if (qs <= 0) return;
+
+		Entry e = get(img, qs, qr);
+		if (e != null)
+			g.drawImage(e.image, Math.round(x) + e.dx, Math.round(y) + e.dy, null);
+		else
+			g.drawImage(img, transform(img, Math.round(x), Math.round(y), qs, qr), null);
+	}
+
+	/**
+	 * Get the transformed copy of 'img' that draw() would draw. Copies too
+	 * big to cache are made each time.
+	 *
+	 * @param img The image to transform
+	 * @param scale The scale factor
+	 * @param rotation The rotation in radians
+	 * @param offset Set to where to draw the copy relative to the position
+	 * the untransformed image would be drawn at
+	 * @return The transformed copy, or null if it would be empty
+	 */
+	public BufferedImage getTransformed(Image img, double scale, double rotation, Point offset)
+	{
+		BufferedImage copy = getCached(img, scale, rotation, offset);
+		return (copy != null) ? copy : getUncached(img, scale, rotation, offset);
+	}
+
+	/**
+	 * Get the cached transformed copy of 'img', making it if needed.
+	 *
+	 * @param img The image to transform
+	 * @param scale The scale factor
+	 * @param rotation The rotation in radians
+	 * @param offset Set as for getTransformed()
+	 * @return The cached copy, or null if it would be empty or too big to cache
+	 */
+	public BufferedImage getCached(Image img, double scale, double rotation, Point offset)
+	{
+		int qs = quantiseScale(scale);
+		if (qs <= 0) return null;
+
+		Entry e = get(img, qs, quantiseRotation(rotation));
+		if (e == null) return null;
+		offset.setLocation(e.dx, e.dy);
+		return e.image;
+	}
+
+	/**
+	 * Make a new transformed copy of 'img' without caching it, e.g. when
+	 * getCached() found it too big to cache.
+	 *
+	 * @param img The image to transform
+	 * @param scale The scale factor
+	 * @param rotation The rotation in radians
+	 * @param offset Set as for getTransformed()
+	 * @return The new copy, or null if it would be empty
+	 */
+	public BufferedImage getUncached(Image img, double scale, double rotation, Point offset)
+	{
+		int qs = quantiseScale(scale);
+		if (qs <= 0) return null;
+
+		Entry e = makeCopy(img, qs, quantiseRotation(rotation), Long.MAX_VALUE);
+		if (e == null) return null;
+		offset.setLocation(e.dx, e.dy);
+		return e.image;
+	}
+
+	private static int quantiseScale(double scale)
+	{
+		return (int)Math.round(scale * SCALE_STEPS);
+	}
+
+	private static int quantiseRotation(double rotation)
+	{
+		return (int)Math.floorMod(Math.round(rotation / (2 * Math.PI) * ROTATION_STEPS), (long)ROTATION_STEPS);
+	}
+
+	/**
+	 * Find the copy of 'img' for the quantised scale 'qs' and rotation
+	 * 'qr', making it if needed.
+	 *
+	 * @return The cached copy, or null if it would be too big to cache
+	 */
+	private synchronized Entry get(Image img, int qs, int qr)
+	{
+		probe.set(img, qs, qr);
+		Entry e = entries.get(probe);
+		if (e != null)
+		{
+			hits++;
+			return e;
+		}
+		misses++;
+
+		e = makeCopy(img, qs, qr, maxPixels / 4);
+		if (e == null) return null;
+
+		Key key = new Key();
+		key.set(img, qs, qr);
+		entries.put(key, e);
+		pixels += (long)e.image.getWidth() * e.image.getHeight();
+
+		// Drop the least recently drawn copies until back within budget
+		Iterator<Entry> it = entries.values().iterator();
+		while (pixels > maxPixels && it.hasNext())
+		{
+			Entry old = it.next();
+			if (old == e) break;
+			pixels -= (long)old.image.getWidth() * old.image.getHeight();
+			it.remove();
+		}
+		return e;
+	}
+
+	/**
+	 * Make a transformed copy of 'img'.
+	 *
+	 * @return The copy, or null if it would be empty or bigger than 'limit' pixels
+	 */
+	private static Entry makeCopy(Image img, int qs, int qr, long limit)
+	{
+		int w = img.getWidth(null);
+		int h = img.getHeight(null);
+		if (w <= 0 || h <= 0) return null;
+		AffineTransform t = transform(img, 0, 0, qs, qr);
+		Rectangle2D bounds = t.createTransformedShape(new Rectangle2D.Double(0, 0, w, h)).getBounds2D();
+		int x0 = (int)Math.floor(bounds.getMinX());
+		int y0 = (int)Math.floor(bounds.getMinY());
+		int bw = (int)Math.ceil(bounds.getMaxX()) - x0;
+		int bh = (int)Math.ceil(bounds.getMaxY()) - y0;
+		if (bw <= 0 || bh <= 0 || (long)bw * bh > limit) return null;
+
+		BufferedImage copy = CompatibleImages.createImage(bw, bh, Transparency.TRANSLUCENT);
+		Graphics2D g = copy.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		t.preConcatenate(AffineTransform.getTranslateInstance(-x0, -y0));
+		g.drawImage(img, t, null);
+		g.dispose();
+
+		return new Entry(copy, x0, y0);
+	}
+
+	/**
+	 * Build the transform for drawing 'img' at 'x,y' with quantised scale
+	 * 'qs' and rotation 'qr', matching Sprite.drawTransformed().
+	 */
+	private static AffineTransform transform(Image img, int x, int y, int qs, int qr)
+	{
+		double scale = (double)qs / SCALE_STEPS;
+		AffineTransform t = new AffineTransform();
+		t.translate(x, y);
+		t.scale(scale, scale);
+		t.rotate(qr * 2 * Math.PI / ROTATION_STEPS, img.getWidth(null)/2, img.getHeight(null)/2);
+		return t;
+	}
+
+	/**
+	 * Remove every cached copy.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+		pixels = 0;
+	}
+
+	/**
+	 * @return The number of copies currently cached
+	 */
+	public synchronized int size() { return entries.size(); }
+
+	/**
+	 * @return The number of pixels used by the cached copies
+	 */
+	public synchronized long getPixels() { return pixels; }
+
+	/**
+	 * @return The number of draws that found their copy in the cache
+	 */
+	public synchronized long getHits() { return hits; }
+
+	/**
+	 * @return The number of draws that had to make (or could not cache) a copy
+	 */
+	public synchronized long getMisses() { return misses; }
+
+	/**
+	 * Identifies one transformed copy: the source image (by identity) plus
+	 * the quantised scale and rotation.
+	 */
+	private static class Key {
+
+		Image image;
+		int scale, rotation;
+
+		void set(Image img, int qs, int qr)
+		{
+			image = img;
+			scale = qs;
+			rotation = qr;
+		}
+
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			return k.image == image && k.scale == scale && k.rotation == rotation;
+		}
+
+		public int hashCode()
+		{
+			return (System.identityHashCode(image) * 31 + scale) * 31 + rotation;
+		}
+	}
+
+	/**
+	 * A transformed copy and where to draw it relative to the position the
+	 * untransformed image would be drawn at.
+	 */
+	private static class Entry {
+
+		BufferedImage image;
+		int dx, dy;
+
+		Entry(BufferedImage image, int dx, int dy)
+		{
+			this.image = image;
+			this.dx = dx;
+			this.dy = dy;
+		}
+	}
+}
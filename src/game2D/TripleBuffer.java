@@ -0,0 +1,98 @@
+package game2D;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TripleBuffer hands objects from one writer thread to one reader thread
+ * without locking. The writer fills the back slot and publishes it; the reader
+ * picks up the most recently published slot. Neither side ever waits for the
+ * other: if the writer publishes twice before the reader looks, the older of
+ * the two is simply reused for the next write.
+ * <p>
+ * Only one thread may call getWriteBuffer()/publish() and only one thread may
+ * call update()/getReadBuffer().
+ *
+ * @param <T> The type of object held in each slot
+ */
+public class TripleBuffer<T> {
+
+	// Bit set in 'middle' when it holds a slot the reader has not seen yet
+	private static final int FRESH = 4;
+
+	private final Object[] slots = new Object[3];
+	private final AtomicInteger middle;	// Index of the shared slot, plus the FRESH bit
+	private int back;					// Slot owned by the writer
+	private int front;					// Slot owned by the reader
+	private boolean published;			// True once the reader has received a slot
+
+	/**
+	 * Create a triple buffer from three distinct objects.
+	 *
+	 * @param a The first slot
+	 * @param b The second slot
+	 * @param c The third slot
+	 */
+	public TripleBuffer(T a, T b, T c)
+	{
+		slots[0] = a;
+		slots[1] = b;
+		slots[2] = c;
+		back = 0;
+		middle = new AtomicInteger(1);
+		front = 2;
+		published = false;
+	}
+
+	/**
+	 * @return The slot the writer should fill next
+	 */
+	@SuppressWarnings("unchecked")
+	public T getWriteBuffer()
+	{
+		return (T)slots[back];
+	}
+
+	/**
+	 * Make the slot returned by getWriteBuffer() available to the reader.
+	 *
+	 * @return true if the previously published slot was overwritten before
+	 * the reader picked it up
+	 */
+	public boolean publish()
+	{
+		int old = middle.getAndSet(back | FRESH);
+		back = old & ~FRESH;
+		return (old & FRESH) != 0;
+	}
+
+	/**
+	 * Swap in the most recently published slot, if there is one.
+	 *
+	 * @return true if a new slot was received
+	 */
+	public boolean update()
+	{
+		if ((middle.get() & FRESH) == 0) return false;
+		int old = middle.getAndSet(front);
+		front = old & ~FRESH;
+		published = true;
+		return true;
+	}
+
+	/**
+	 * @return The slot most recently received by update()
+	 */
+	@SuppressWarnings("unchecked")
+	public T getReadBuffer()
+	{
+		return (T)slots[front];
+	}
+
+	/**
+	 * @return true once update() has received at least one published slot
+	 */
+	public boolean hasPublished()
+	{
+		return published;
+	}
+}